@@ -1,10 +1,9 @@
 package pydecompiler.dis;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
-import pydecompiler.util.Pair;
-
 
 public class ASTNode {
 
@@ -35,36 +34,38 @@ public class ASTNode {
     return m_type;
   }
 
-  private int m_refs;
   protected Type m_type;
 
   public static final ASTNode Node_NULL = new ASTNode();
+
+  /* Shared by nodes with no children of a kind; never modified */
+  static final List<ASTNode> NO_NODES = Collections.emptyList();
 }
 
 
 class ASTNodeList extends ASTNode {
-  public ASTNodeList(LinkedList<ASTNode> nodes) {
+  public ASTNodeList(List<ASTNode> nodes) {
     super(Type.NODE_NODELIST);
     m_nodes = nodes;
   }
 
-  public LinkedList<ASTNode> nodes() {
+  public List<ASTNode> nodes() {
     return m_nodes;
   }
 
   public void removeLast() {
-    m_nodes.removeLast();
+    m_nodes.remove(m_nodes.size() - 1);
   }
 
   public void removeFirst() {
-    m_nodes.removeFirst();
+    m_nodes.remove(0);
   }
 
   public void append(ASTNode node) {
     m_nodes.add(node);
   }
 
-  private LinkedList<ASTNode> m_nodes;
+  private List<ASTNode> m_nodes;
 }
 
 
@@ -87,9 +88,11 @@ class ASTUnary extends ASTNode {
     UN_POSITIVE, UN_NEGATIVE, UN_INVERT, UN_NOT
   };
 
-  public ASTUnary(ASTNode operand, Object op) {
+  private static final UnOp[] s_ops = UnOp.values();
+
+  public ASTUnary(ASTNode operand, UnOp op) {
     super(Type.NODE_UNARY);
-    m_op = op;
+    m_op = op.ordinal();
     m_operand = operand;
   }
 
@@ -97,17 +100,21 @@ class ASTUnary extends ASTNode {
     return m_operand;
   }
 
-  public Object op() {
+  public UnOp op() {
+    return s_ops[m_op];
+  }
+
+  public int opordinal() {
     return m_op;
   }
 
   static String s_op_strings[] = { "+", "-", "~", "not " };
 
   String op_str() {
-    return s_op_strings[((UnOp) op()).ordinal()];
+    return s_op_strings[m_op];
   }
 
-  protected Object m_op;
+  protected final int m_op; /* UnOp ordinal */
   private ASTNode m_operand;
 }
 
@@ -122,11 +129,14 @@ class ASTBinary extends ASTNode {
     BIN_IP_FLOOR,
   }
 
-  public ASTBinary(ASTNode left, ASTNode right, Object op) {
-    this(left, right, op, Type.NODE_BINARY);
+  private static final BinOp[] s_ops = BinOp.values();
+
+  public ASTBinary(ASTNode left, ASTNode right, BinOp op) {
+    this(left, right, op.ordinal(), Type.NODE_BINARY);
   }
 
-  public ASTBinary(ASTNode left, ASTNode right, Object op, Type type) {
+  /* op is the ordinal of the enum the subclass uses */
+  ASTBinary(ASTNode left, ASTNode right, int op, Type type) {
     super(type);
     m_left = left;
     m_right = right;
@@ -141,12 +151,14 @@ class ASTBinary extends ASTNode {
     return m_right;
   }
 
+  /* The operator as this node's enum: BinOp here, CompareOp or SliceOp in
+   * the subclasses */
   public Object op() {
-    return m_op;
+    return s_ops[m_op];
   }
 
   public int opordinal() {
-    return ((BinOp) m_op).ordinal();
+    return m_op;
   }
 
   public boolean is_inplace() {
@@ -161,10 +173,10 @@ class ASTBinary extends ASTNode {
   };
 
   public String op_str() {
-    return s_op_strings[((BinOp) op()).ordinal()];
+    return s_op_strings[m_op];
   }
 
-  protected Object m_op;
+  protected final int m_op;
   private ASTNode m_left;
   private ASTNode m_right;
 }
@@ -177,8 +189,14 @@ class ASTCompare extends ASTBinary {
     CMP_EXCEPTION, CMP_BAD;
   };
 
+  private static final CompareOp[] s_ops = CompareOp.values();
+
   ASTCompare(ASTNode left, ASTNode right, int op) {
-    super(left, right, CompareOp.values()[op], Type.NODE_COMPARE);
+    super(left, right, Math.min(op, CompareOp.CMP_BAD.ordinal()), Type.NODE_COMPARE);
+  }
+
+  public Object op() {
+    return s_ops[m_op];
   }
 
   static String s_cmp_strings[] = {
@@ -187,7 +205,7 @@ class ASTCompare extends ASTBinary {
   };
 
   public String op_str() {
-    return s_cmp_strings[((CompareOp) op()).ordinal()];
+    return s_cmp_strings[m_op];
   }
 }
 
@@ -205,8 +223,14 @@ class ASTSlice extends ASTBinary {
     this(op, left, Node_NULL);
   }
 
+  private static final SliceOp[] s_ops = SliceOp.values();
+
   public ASTSlice(SliceOp op, ASTNode left, ASTNode right) {
-    super(left, right, op, Type.NODE_SLICE);
+    super(left, right, op.ordinal(), Type.NODE_SLICE);
+  }
+
+  public Object op() {
+    return s_ops[m_op];
   }
 }
 
@@ -334,12 +358,17 @@ class ASTClass extends ASTNode {
 
 
 class ASTCall extends ASTNode {
-  public ASTCall(ASTNode func, LinkedList<ASTNode> pparams,
-      LinkedList<Pair<ASTNode, ASTNode>> kwparams) {
+  public ASTCall(ASTNode func, List<ASTNode> pparams) {
+    this(func, pparams, NO_NODES, NO_NODES);
+  }
+
+  /* Keyword arguments are two parallel lists rather than a list of pairs */
+  public ASTCall(ASTNode func, List<ASTNode> pparams, List<ASTNode> kwkeys, List<ASTNode> kwvalues) {
     super(Type.NODE_CALL);
     m_func = func;
-    m_pparams = pparams;
-    m_kwparams = kwparams;
+    m_pparams = pparams.isEmpty() ? NO_NODES : pparams;
+    m_kwkeys = kwkeys.isEmpty() ? NO_NODES : kwkeys;
+    m_kwvalues = kwvalues.isEmpty() ? NO_NODES : kwvalues;
     m_var = Node_NULL;
     m_kw = Node_NULL;
   }
@@ -348,12 +377,16 @@ class ASTCall extends ASTNode {
     return m_func;
   }
 
-  public LinkedList<ASTNode> pparams() {
+  public List<ASTNode> pparams() {
     return m_pparams;
   }
 
-  public LinkedList<Pair<ASTNode, ASTNode>> kwparams() {
-    return m_kwparams;
+  public List<ASTNode> kwkeys() {
+    return m_kwkeys;
+  }
+
+  public List<ASTNode> kwvalues() {
+    return m_kwvalues;
   }
 
   public ASTNode var() {
@@ -381,8 +414,9 @@ class ASTCall extends ASTNode {
   }
 
   private ASTNode m_func;
-  private LinkedList<ASTNode> m_pparams;
-  private LinkedList<Pair<ASTNode, ASTNode>> m_kwparams;
+  private List<ASTNode> m_pparams;
+  private List<ASTNode> m_kwkeys;
+  private List<ASTNode> m_kwvalues;
   private ASTNode m_var;
   private ASTNode m_kw;
 }
@@ -393,8 +427,6 @@ class ASTImport extends ASTNode {
     super(Type.NODE_IMPORT);
     m_name = name;
     m_fromlist = fromlist;
-
-    m_stores = new LinkedList<ASTStore>();
   }
 
   public ASTNode name() {
@@ -402,10 +434,12 @@ class ASTImport extends ASTNode {
   }
 
   public List<ASTStore> stores() {
-    return m_stores;
+    return (m_stores != null) ? m_stores : Collections.<ASTStore>emptyList();
   }
 
   public void add_store(ASTStore store) {
+    if (m_stores == null)
+      m_stores = new ArrayList<ASTStore>(4);
     m_stores.add(store);
   }
 
@@ -414,7 +448,7 @@ class ASTImport extends ASTNode {
   }
 
   private ASTNode m_name;
-  private List<ASTStore> m_stores;
+  private List<ASTStore> m_stores; /* Allocated by the first add_store */
 
   private ASTNode m_fromlist;
 }
@@ -455,18 +489,26 @@ class ASTList extends ASTNode {
 class ASTMap extends ASTNode {
   public ASTMap() {
     super(Type.NODE_MAP);
-    m_values = new LinkedList<Pair<ASTNode, ASTNode>>();
+    m_keys = new ArrayList<ASTNode>();
+    m_values = new ArrayList<ASTNode>();
   }
 
   public void add(ASTNode key, ASTNode value) {
-    m_values.add(new Pair<ASTNode, ASTNode>(key, value));
+    m_keys.add(key);
+    m_values.add(value);
   }
 
-  public List<Pair<ASTNode, ASTNode>> values() {
+  /* Parallel to values() */
+  public List<ASTNode> keys() {
+    return m_keys;
+  }
+
+  public List<ASTNode> values() {
     return m_values;
   }
 
-  private List<Pair<ASTNode, ASTNode>> m_values;
+  private List<ASTNode> m_keys;
+  private List<ASTNode> m_values;
 }
 
 
@@ -553,16 +595,16 @@ class ASTKeyword extends ASTNode {
 
 
 class ASTRaise extends ASTNode {
-  public ASTRaise(LinkedList<ASTNode> params) {
+  public ASTRaise(List<ASTNode> params) {
     super(Type.NODE_RAISE);
     m_params = params;
   }
 
-  public LinkedList<ASTNode> params() {
+  public List<ASTNode> params() {
     return m_params;
   }
 
-  private LinkedList<ASTNode> m_params;
+  private List<ASTNode> m_params;
 }
 
 
@@ -612,7 +654,7 @@ class ASTBlock extends ASTNode {
     m_blktype = blktype;
     m_end = end;
     m_inited = inited;
-    m_nodes = new LinkedList<ASTNode>();
+    m_nodes = new ArrayList<ASTNode>();
   }
 
   public BlkType blktype() {
@@ -623,7 +665,7 @@ class ASTBlock extends ASTNode {
     return m_end;
   }
 
-  public LinkedList<ASTNode> nodes() {
+  public List<ASTNode> nodes() {
     return m_nodes;
   }
 
@@ -632,11 +674,11 @@ class ASTBlock extends ASTNode {
   }
 
   public void removeLast() {
-    m_nodes.removeLast();
+    m_nodes.remove(m_nodes.size() - 1);
   }
 
   public void removeFirst() {
-    m_nodes.removeFirst();
+    m_nodes.remove(0);
   }
   
   public void append(ASTNode node) {
@@ -668,7 +710,7 @@ class ASTBlock extends ASTNode {
 
   private BlkType m_blktype;
   private int m_end;
-  private LinkedList<ASTNode> m_nodes;
+  private List<ASTNode> m_nodes;
 
   protected Object m_inited; /* Is the block's definition "complete" */
 }
@@ -812,7 +854,7 @@ class ASTComprehension extends ASTNode {
   public ASTComprehension(ASTNode result) {
     super(Type.NODE_COMPREHENSION);
     m_result = result;
-    m_generators = new LinkedList<ASTIterBlock>();
+    m_generators = new ArrayList<ASTIterBlock>(2);
   }
 
   public ASTNode result() {
@@ -1,45 +1,40 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 import pydecompiler.util.FastStack;
 import pydecompiler.util.Logger;
-import pydecompiler.util.Pair;
+import pydecompiler.util.OutputSink;
 import pydecompiler.util.Stack;
+import pydecompiler.util.StringSink;
 
 
 public class ASTree {
-  /* Use this to determine if an error occurred (and therefore, if we should
-   * avoid cleaning the output tree) */
-  static boolean cleanBuild;
-
-  /* Keep track of whether we're in a print statement, so we can make
-   * chained prints (print x, y, z) prettier */
-  static boolean inPrint;
-
-  /* Use this to prevent printing return keywords and newlines in lambdas. */
-  static boolean inLambda = false;
-
-  /* Use this to keep track of whether we need to print out the list of global
-   * variables that we are using (such as inside a function). */
-  static boolean printGlobals = false;
-
-  static boolean LOCK_DEBUG = false;
-  static boolean STACK_DEBUG = false;
-  static boolean BLOCK_DEBUG = false;
+  static ASTNode BuildFromCode(PycCode code, PycModule mod, DecompileContext ctx) throws IOException {
+    /* co_stacksize is only stored from Python 1.5 on */
+    int stackSize = (mod.verCompare(1, 5) < 0) ? bytecode.bc_stack_depth(code, mod) : code.stackSize();
+    ASTArena arena = ASTArena.acquire(stackSize);
+    try {
+      return BuildFromCode(code, mod, ctx, arena);
+    } finally {
+      arena.release();
+    }
+  }
 
-  static ASTNode BuildFromCode(PycCode code, PycModule mod) throws IOException {
-    PycBuffer source = new PycBuffer(code.code().value().getBytes(), code.code().length());
+  private static ASTNode BuildFromCode(PycCode code, PycModule mod, DecompileContext ctx, ASTArena arena)
+      throws IOException {
+    int[] insns = code.instructions(mod);
+    int ip = 0;
 
-    FastStack stack = new FastStack((mod.majorVer() == 1) ? 20 : code.stackSize());
-    Stack<FastStack> stack_hist = new Stack<FastStack>();
+    FastStack stack = arena.m_stack;
+    Stack<FastStack> stack_hist = arena.m_stackHist;
 
-    Stack<ASTBlock> blocks = new Stack<ASTBlock>();
+    Stack<ASTBlock> blocks = arena.m_blocks;
     ASTBlock defblock = new ASTBlock(ASTBlock.BlkType.BLK_MAIN);
     defblock.init();
     ASTBlock curblock = defblock;
@@ -52,47 +47,37 @@ public class ASTree {
     int unpack = 0;
     boolean else_pop = false;
     boolean need_try = false;
-    boolean is_disasm = false;
 
-    while (!source.atEof()) {
-      if (BLOCK_DEBUG || STACK_DEBUG) {
-        System.err.printf("%-7d", pos);
-        if (STACK_DEBUG)
-          System.err.printf("%-5d", (int) stack_hist.size() + 1);
+    while (ip + bytecode.INSN_WIDTH < insns.length) {
+      if (Logger.isTracing(Logger.BLOCK | Logger.STACK)) {
+        StringSink trace = new StringSink();
+        bytecode.bc_pad(trace, pos, 7);
+        if (Logger.isTracing(Logger.STACK))
+          bytecode.bc_pad(trace, stack_hist.size() + 1, 5);
 
-        if (BLOCK_DEBUG) {
-          for (int i = 0; i < blocks.size(); i++)
-            System.err.printf("    ");
-          System.err.printf("%s (%d)", curblock.type_str(), curblock.end());
+        if (Logger.isTracing(Logger.BLOCK)) {
+          bytecode.bc_indent(trace, blocks.size());
+          trace.append(curblock.type_str()).append(" (").append(curblock.end()).append(')');
         }
-        System.err.printf("\n");
+        Logger.trace(Logger.BLOCK | Logger.STACK, () -> trace);
       }
-      curpos = pos;
-      Args args = bytecode.bc_next(source, code, mod, opcode, operand, pos, is_disasm, stack, stack_hist);
-
-      // source = args.source;
-      // code = args.code;
-      // mod = args.mod;
-      opcode = args.opcode;
-      operand = args.operand;
-      pos = args.pos;
+      curpos = insns[ip + bytecode.INSN_POS];
+      opcode = Pyc.Opcode.fromOrdinal(insns[ip + bytecode.INSN_OP]);
+      operand = insns[ip + bytecode.INSN_ARG];
+      ip += bytecode.INSN_WIDTH;
+      pos = insns[ip + bytecode.INSN_POS];
 
       if (need_try && opcode != Pyc.Opcode.SETUP_EXCEPT_A) {
         need_try = false;
 
         /* Store the current stack for the except/finally statement(s) */
-        stack_hist.push(stack);
+        stack_hist.push(stack.snapshot());
         ASTBlock tryblock = new ASTBlock(ASTBlock.BlkType.BLK_TRY, curblock.end(), true);
         blocks.push(tryblock);
         curblock = blocks.top();
       } else if (else_pop
+          && !Pyc.IsCondJump(opcode)
           && opcode != Pyc.Opcode.JUMP_FORWARD_A
-          && opcode != Pyc.Opcode.JUMP_IF_FALSE_A
-          && opcode != Pyc.Opcode.JUMP_IF_FALSE_OR_POP_A
-          && opcode != Pyc.Opcode.POP_JUMP_IF_FALSE_A
-          && opcode != Pyc.Opcode.JUMP_IF_TRUE_A
-          && opcode != Pyc.Opcode.JUMP_IF_TRUE_OR_POP_A
-          && opcode != Pyc.Opcode.POP_JUMP_IF_TRUE_A
           && opcode != Pyc.Opcode.POP_BLOCK) {
         else_pop = false;
 
@@ -254,16 +239,11 @@ public class ASTree {
       case BUILD_FUNCTION: {
         ASTNode code_ = stack.top();
         stack.pop();
-        stack.push(new ASTFunction(code_, new LinkedList<ASTNode>()));
+        stack.push(new ASTFunction(code_, ASTNode.NO_NODES));
       }
         break;
       case BUILD_LIST_A: {
-        LinkedList<ASTNode> values = new LinkedList<ASTNode>();
-        for (int i = 0; i < operand; i++) {
-          values.addFirst(stack.top());
-          stack.pop();
-        }
-        stack.push(new ASTList(values));
+        stack.push(new ASTList(pop_nodes(stack, operand)));
       }
         break;
       case BUILD_MAP_A:
@@ -352,26 +332,16 @@ public class ASTree {
       }
         break;
       case BUILD_TUPLE_A: {
-        LinkedList<ASTNode> values = new LinkedList<ASTNode>();
-        for (int i = 0; i < operand; i++) {
-          values.addFirst(stack.top());
-          stack.pop();
-        }
-        stack.push(new ASTTuple(values));
+        stack.push(new ASTTuple(pop_nodes(stack, operand)));
       }
         break;
       case CALL_FUNCTION_A: {
         int kwparams = (operand & 0xFF00) >> 8;
         int pparams = (operand & 0xFF);
-        LinkedList<Pair<ASTNode, ASTNode>> kwparamList = new LinkedList<Pair<ASTNode, ASTNode>>();
-        LinkedList<ASTNode> pparamList = new LinkedList<ASTNode>();
-        for (int i = 0; i < kwparams; i++) {
-          ASTNode val = stack.top();
-          stack.pop();
-          ASTNode key = stack.top();
-          stack.pop();
-          kwparamList.addFirst(new Pair<ASTNode, ASTNode>(key, val));
-        }
+        List<ASTNode> kwkeys = new ArrayList<ASTNode>(kwparams);
+        List<ASTNode> kwvalues = new ArrayList<ASTNode>(kwparams);
+        pop_keywords(stack, kwparams, kwkeys, kwvalues);
+        List<ASTNode> pparamList = new ArrayList<ASTNode>(pparams);
         for (int i = 0; i < pparams; i++) {
           ASTNode param = stack.top();
           stack.pop();
@@ -380,21 +350,22 @@ public class ASTree {
             PycCode code_src = (PycCode) ((ASTObject) code_).object();
             PycString function_name = code_src.name();
             if (function_name.isEqual("<lambda>")) {
-              pparamList.addFirst(param);
+              pparamList.add(param);
             } else {
               // Decorator used
               ASTNode name = new ASTName(function_name);
               curblock.append(new ASTStore(param, name));
 
-              pparamList.addFirst(name);
+              pparamList.add(name);
             }
           } else {
-            pparamList.addFirst(param);
+            pparamList.add(param);
           }
         }
+        Collections.reverse(pparamList); // Popped last to first
         ASTNode func = stack.top();
         stack.pop();
-        stack.push(new ASTCall(func, pparamList, kwparamList));
+        stack.push(new ASTCall(func, pparamList, kwkeys, kwvalues));
       }
         break;
       case CALL_FUNCTION_VAR_A: {
@@ -402,23 +373,14 @@ public class ASTree {
         stack.pop();
         int kwparams = (operand & 0xFF00) >> 8;
         int pparams = (operand & 0xFF);
-        LinkedList<Pair<ASTNode, ASTNode>> kwparamList = new LinkedList<Pair<ASTNode, ASTNode>>();
-        LinkedList<ASTNode> pparamList = new LinkedList<ASTNode>();
-        for (int i = 0; i < kwparams; i++) {
-          ASTNode val = stack.top();
-          stack.pop();
-          ASTNode key = stack.top();
-          stack.pop();
-          kwparamList.addFirst(new Pair(key, val));
-        }
-        for (int i = 0; i < pparams; i++) {
-          pparamList.addFirst(stack.top());
-          stack.pop();
-        }
+        List<ASTNode> kwkeys = new ArrayList<ASTNode>(kwparams);
+        List<ASTNode> kwvalues = new ArrayList<ASTNode>(kwparams);
+        pop_keywords(stack, kwparams, kwkeys, kwvalues);
+        List<ASTNode> pparamList = pop_nodes(stack, pparams);
         ASTNode func = stack.top();
         stack.pop();
 
-        ASTNode call = new ASTCall(func, pparamList, kwparamList);
+        ASTNode call = new ASTCall(func, pparamList, kwkeys, kwvalues);
         ((ASTCall) call).setVar(var);
         stack.push(call);
       }
@@ -435,23 +397,14 @@ public class ASTree {
         }
         int kwparams = (operand & 0xFF00) >> 8;
         int pparams = (operand & 0xFF);
-        LinkedList<Pair<ASTNode, ASTNode>> kwparamList = new LinkedList<Pair<ASTNode, ASTNode>>();
-        LinkedList<ASTNode> pparamList = new LinkedList<ASTNode>();
-        for (int i = 0; i < kwparams; i++) {
-          ASTNode val = stack.top();
-          stack.pop();
-          ASTNode key = stack.top();
-          stack.pop();
-          kwparamList.addFirst(new Pair<ASTNode, ASTNode>(key, val));
-        }
-        for (int i = 0; i < pparams; i++) {
-          pparamList.addFirst(stack.top());
-          stack.pop();
-        }
+        List<ASTNode> kwkeys = new ArrayList<ASTNode>(kwparams);
+        List<ASTNode> kwvalues = new ArrayList<ASTNode>(kwparams);
+        pop_keywords(stack, kwparams, kwkeys, kwvalues);
+        List<ASTNode> pparamList = pop_nodes(stack, pparams);
         ASTNode func = stack.top();
         stack.pop();
 
-        ASTNode call = new ASTCall(func, pparamList, kwparamList);
+        ASTNode call = new ASTCall(func, pparamList, kwkeys, kwvalues);
         ((ASTCall) call).setKW(kw);
         if (opcode == Pyc.Opcode.CALL_FUNCTION_VAR_KW_A) {
           ((ASTCall) call).setVar(var);
@@ -567,25 +520,16 @@ public class ASTree {
       }
         break;
       case DUP_TOPX_A: {
-        Stack<ASTNode> first = new Stack<ASTNode>();
-        Stack<ASTNode> second = new Stack<ASTNode>();
+        Stack<ASTNode> dup = arena.m_scratch;
+        for (int i = 0; i < operand; i++)
+          dup.push(stack.pop());
 
-        for (int i = 0; i < operand; i++) {
-          ASTNode node = stack.top();
-          stack.pop();
-          first.push(node);
-          second.push(node);
-        }
-
-        while (!first.isEmpty()) {
-          stack.push(first.top());
-          first.pop();
-        }
-
-        while (!second.isEmpty()) {
-          stack.push(second.top());
-          second.pop();
+        /* Iterates from the last pushed, i.e. the deepest node, up */
+        for (int copy = 0; copy < 2; copy++) {
+          for (ASTNode node : dup)
+            stack.push(node);
         }
+        dup.clear();
       }
         break;
       case END_FINALLY: {
@@ -594,7 +538,7 @@ public class ASTree {
           ASTBlock final_ = curblock;
           blocks.pop();
 
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
 
           curblock = blocks.top();
@@ -617,7 +561,7 @@ public class ASTree {
             blocks.push(elseblk);
             curblock = blocks.top();
           } else {
-            stack = stack_hist.top();
+            stack.restore(stack_hist.top());
             stack_hist.pop();
           }
         }
@@ -837,7 +781,7 @@ public class ASTree {
         }
 
         /* Store the current stack for the else statement(s) */
-        stack_hist.push(stack);
+        stack_hist.push(stack.snapshot());
 
         if (opcode == Pyc.Opcode.JUMP_IF_FALSE_OR_POP_A 
             || opcode == Pyc.Opcode.JUMP_IF_TRUE_OR_POP_A) {
@@ -873,7 +817,7 @@ public class ASTree {
             && curblock.size() == 0) {
           /* Collapse into elif statement */
           blocks.pop();
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
           ifblk = new ASTCondBlock(ASTBlock.BlkType.BLK_ELIF, offs, cond, neg);
         } else if (curblock.size() == 0 && curblock.inited() 
@@ -949,7 +893,7 @@ public class ASTree {
           } else {
             if (curblock.blktype() == ASTBlock.BlkType.BLK_ELSE) {
               if (!stack_hist.empty()) {
-                stack = stack_hist.top();
+                stack.restore(stack_hist.top());
                 stack_hist.pop();
               }
 
@@ -976,7 +920,7 @@ public class ASTree {
         if (curblock.blktype() == ASTBlock.BlkType.BLK_CONTAINER) {
           ASTContainerBlock cont = (ASTContainerBlock) curblock;
           if (cont.hasExcept()) {
-            stack_hist.push(stack);
+            stack_hist.push(stack.snapshot());
             curblock.setEnd(pos + operand);
             ASTBlock except = new ASTCondBlock(ASTBlock.BlkType.BLK_EXCEPT, pos + operand, ASTNode.Node_NULL, false);
             except.init();
@@ -987,7 +931,7 @@ public class ASTree {
         }
 
         if (!stack_hist.empty()) {
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
         }
 
@@ -1007,7 +951,7 @@ public class ASTree {
           if (prev.blktype() == ASTBlock.BlkType.BLK_IF 
               || prev.blktype() == ASTBlock.BlkType.BLK_ELIF) {
             if (push) {
-              stack_hist.push(stack);
+              stack_hist.push(stack.snapshot());
             }
             ASTBlock next = new ASTBlock(ASTBlock.BlkType.BLK_ELSE, blocks.top().end());
             if (prev.m_inited == ASTCondBlock.InitCond.PRE_POPPED) {
@@ -1018,7 +962,7 @@ public class ASTree {
             prev = nil;
           } else if (prev.blktype() == ASTBlock.BlkType.BLK_EXCEPT) {
             if (push) {
-              stack_hist.push(stack);
+              stack_hist.push(stack.snapshot());
             }
             ASTBlock next = new ASTCondBlock(ASTBlock.BlkType.BLK_EXCEPT, blocks.top().end(), ASTNode.Node_NULL, false);
             next.init();
@@ -1029,7 +973,7 @@ public class ASTree {
             /* Special case */
             prev = blocks.top();
             if (!push) {
-              stack = stack_hist.top();
+              stack.restore(stack_hist.top());
               stack_hist.pop();
             }
             push = false;
@@ -1052,7 +996,7 @@ public class ASTree {
         if (curblock.blktype() == ASTBlock.BlkType.BLK_CONTAINER) {
           ASTContainerBlock cont = (ASTContainerBlock) curblock;
           if (cont.hasExcept()) {
-            stack_hist.push(stack);
+            stack_hist.push(stack.snapshot());
 
             curblock.setEnd(pos + operand);
             ASTBlock except = new ASTCondBlock(ASTBlock.BlkType.BLK_EXCEPT, pos + operand, ASTNode.Node_NULL, false);
@@ -1075,7 +1019,7 @@ public class ASTree {
         }
 
         if (!stack_hist.empty()) {
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
         }
 
@@ -1098,7 +1042,7 @@ public class ASTree {
             }
 
             if (push) {
-              stack_hist.push(stack);
+              stack_hist.push(stack.snapshot());
             }
             ASTBlock next = new ASTBlock(ASTBlock.BlkType.BLK_ELSE, pos + operand);
             if (prev.m_inited == ASTCondBlock.InitCond.PRE_POPPED) {
@@ -1114,7 +1058,7 @@ public class ASTree {
             }
 
             if (push) {
-              stack_hist.push(stack);
+              stack_hist.push(stack.snapshot());
             }
             ASTBlock next = new ASTCondBlock(ASTBlock.BlkType.BLK_EXCEPT, pos + operand, ASTNode.Node_NULL, false);
             next.init();
@@ -1125,7 +1069,7 @@ public class ASTree {
             /* Special case */
             prev = blocks.top();
             if (!push) {
-              stack = stack_hist.top();
+              stack.restore(stack_hist.top());
               stack_hist.pop();
             }
             push = false;
@@ -1137,14 +1081,14 @@ public class ASTree {
           } else if (prev.blktype() == ASTBlock.BlkType.BLK_TRY && 
                      prev.end() < pos + operand) {
             /* Need to add an except/finally block */
-            stack = stack_hist.top();
+            stack.restore(stack_hist.top());
             stack.pop();
 
             if (blocks.top().blktype() == ASTBlock.BlkType.BLK_CONTAINER) {
               ASTContainerBlock cont = (ASTContainerBlock) (blocks.top());
               if (cont.hasExcept()) {
                 if (push) {
-                  stack_hist.push(stack);
+                  stack_hist.push(stack.snapshot());
                 }
 
                 ASTBlock except = new ASTCondBlock(ASTBlock.BlkType.BLK_EXCEPT, pos + operand, ASTNode.Node_NULL, false);
@@ -1203,7 +1147,7 @@ public class ASTree {
 
         if (t_ob.object().type() == PycObject.Type.TYPE_TUPLE &&
             ((PycTuple) t_ob.object()).values().size() != 0) {
-          LinkedList<ASTNode> values = new LinkedList<ASTNode>();
+          List<ASTNode> values = new ArrayList<ASTNode>(1);
           values.add(t_ob); //////////??????????
           stack.push(new ASTTuple(values));
         } else if (t_ob.object().type() == PycObject.Type.TYPE_NONE) {
@@ -1247,7 +1191,7 @@ public class ASTree {
 
           curblock.append(newcond);
 
-          ASTNode curblockfront = curblock.nodes().getFirst();
+          ASTNode curblockfront = curblock.nodes().get(0);
           stack.pop();
           stack.push(curblockfront);
 
@@ -1260,12 +1204,7 @@ public class ASTree {
       case MAKE_FUNCTION_A: {
         ASTNode _code = stack.top();
         stack.pop();
-        LinkedList<ASTNode> defArgs = new LinkedList<ASTNode>();
-        for (int i = 0; i < operand; i++) {
-          defArgs.addFirst(stack.top());
-          stack.pop();
-        }
-        stack.push(new ASTFunction(_code, defArgs));
+        stack.push(new ASTFunction(_code, pop_nodes(stack, operand)));
       }
         break;
       case POP_BLOCK: {
@@ -1283,7 +1222,7 @@ public class ASTree {
         ASTBlock tmp;
 
         if (!curblock.nodes().isEmpty() && 
-            curblock.nodes().getLast().type() == ASTNode.Type.NODE_KEYWORD) {
+            curblock.nodes().get(curblock.size() - 1).type() == ASTNode.Type.NODE_KEYWORD) {
           curblock.removeLast();
         }
 
@@ -1295,7 +1234,7 @@ public class ASTree {
             || curblock.blktype() == ASTBlock.BlkType.BLK_FINALLY) {
           if (!stack_hist.empty()) {
             // if (stack.top() != null)
-            stack = stack_hist.top();
+            stack.restore(stack_hist.top());
             stack_hist.pop();
           }
         }
@@ -1312,7 +1251,7 @@ public class ASTree {
         }
 
         if (tmp.blktype() == ASTBlock.BlkType.BLK_FOR && tmp.end() >= pos) {
-          stack_hist.push(stack);
+          stack_hist.push(stack.snapshot());
 
           ASTBlock blkelse = new ASTBlock(ASTBlock.BlkType.BLK_ELSE, tmp.end());
           blocks.push(blkelse);
@@ -1322,7 +1261,7 @@ public class ASTree {
         if (curblock.blktype() == ASTBlock.BlkType.BLK_TRY 
             && tmp.blktype() != ASTBlock.BlkType.BLK_FOR 
             && tmp.blktype() != ASTBlock.BlkType.BLK_WHILE) {
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
 
           tmp = curblock;
@@ -1349,7 +1288,7 @@ public class ASTree {
               || (tmp.blktype() == ASTBlock.BlkType.BLK_TRY && !cont.hasExcept())) {
 
             /* Add the finally block */
-            stack_hist.push(stack);
+            stack_hist.push(stack.snapshot());
 
             ASTBlock final_ = new ASTBlock(ASTBlock.BlkType.BLK_FINALLY, 0, true);
             blocks.push(final_);
@@ -1403,7 +1342,7 @@ public class ASTree {
            * a call to append the iter to the list.
            */
           if (value.type() == ASTNode.Type.NODE_CALL) {
-            ASTNode res = ((ASTCall) value).pparams().getFirst();
+            ASTNode res = ((ASTCall) value).pparams().get(0);
 
             stack.push(new ASTComprehension(res));
           }
@@ -1430,11 +1369,7 @@ public class ASTree {
         stack.pop();
         break;
       case RAISE_VARARGS_A: {
-        LinkedList<ASTNode> paramList = new LinkedList<ASTNode>();
-        for (int i = 0; i < operand; i++) {
-          paramList.addFirst(stack.top());
-          stack.pop();
-        }
+        List<ASTNode> paramList = pop_nodes(stack, operand);
         // stack.push(new ASTRaise(paramList));
         // curblock.append(stack.peek());
         curblock.append(new ASTRaise(paramList));
@@ -1443,7 +1378,7 @@ public class ASTree {
             || curblock.blktype() == ASTBlock.BlkType.BLK_ELSE) 
             && stack_hist.size() > 0 
             && (mod.verCompare(2, 6) >= 0)) {
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
 
           ASTBlock prev = curblock;
@@ -1453,10 +1388,12 @@ public class ASTree {
             curblock.append((ASTNode) prev);
           }
 
-          args = bytecode.bc_next(source, code, mod, opcode, operand, pos, is_disasm, stack, stack_hist);
-          opcode = args.opcode;
-          operand = args.operand;
-          pos = args.pos;
+          if (ip + bytecode.INSN_WIDTH < insns.length) {
+            opcode = Pyc.Opcode.fromOrdinal(insns[ip + bytecode.INSN_OP]);
+            operand = insns[ip + bytecode.INSN_ARG];
+            ip += bytecode.INSN_WIDTH;
+            pos = insns[ip + bytecode.INSN_POS];
+          }
         }
       }
         break;
@@ -1469,7 +1406,7 @@ public class ASTree {
             || curblock.blktype() == ASTBlock.BlkType.BLK_ELSE) 
             && stack_hist.size() > 0 
             && (mod.verCompare(2, 6) >= 0)) {
-          stack = stack_hist.top();
+          stack.restore(stack_hist.top());
           stack_hist.pop();
 
           ASTBlock prev = curblock;
@@ -1558,7 +1495,7 @@ public class ASTree {
         }
 
         /* Store the current stack for the except/finally statement(s) */
-        stack_hist.push(stack);
+        stack_hist.push(stack.snapshot());
         ASTBlock tryblock = new ASTBlock(ASTBlock.BlkType.BLK_TRY, pos + operand, true);
         blocks.push(tryblock);
         curblock = blocks.top();
@@ -1752,9 +1689,9 @@ public class ASTree {
             ASTImport import_ = (ASTImport) stack.top();
             import_.add_store(new ASTStore(value, name));
           } else {
-            LinkedList<ASTNode> nodes = curblock.nodes();
+            List<ASTNode> nodes = curblock.nodes();
             if (nodes.size() > 0) {
-              ASTNode b = (ASTNode) nodes.getLast();
+              ASTNode b = nodes.get(nodes.size() - 1);
 
               if (// b.type() == ASTNode.Type.NODE_BLOCK &&
               b instanceof ASTBlock && ((ASTBlock) b).blktype() == ASTBlock.BlkType.BLK_IF) {
@@ -1869,9 +1806,9 @@ public class ASTree {
             ((ASTWithBlock) curblock).setExpr(value);
             ((ASTWithBlock) curblock).setVar(name);
           } else {
-            LinkedList<ASTNode> nodes = curblock.nodes();
+            List<ASTNode> nodes = curblock.nodes();
             if (nodes.size() > 0) {
-              ASTNode b = (ASTNode) nodes.getLast();
+              ASTNode b = nodes.get(nodes.size() - 1);
 
               if (// b.type() == ASTNode.Type.NODE_BLOCK &&
               b instanceof ASTBlock && ((ASTBlock) b).blktype() == ASTBlock.BlkType.BLK_IF) {
@@ -1976,7 +1913,7 @@ public class ASTree {
       case UNARY_CALL: {
         ASTNode func = stack.top();
         stack.pop();
-        stack.push(new ASTCall(func, new LinkedList<ASTNode>(), new LinkedList<Pair<ASTNode, ASTNode>>()));
+        stack.push(new ASTCall(func, ASTNode.NO_NODES));
       }
         break;
       case UNARY_CONVERT: {
@@ -2014,7 +1951,7 @@ public class ASTree {
       case UNPACK_SEQUENCE_A: {
         unpack = operand;
 
-        List<ASTNode> vals = new LinkedList<ASTNode>();
+        List<ASTNode> vals = new ArrayList<ASTNode>(unpack);
 
         stack.push(new ASTTuple(vals));
       }
@@ -2027,12 +1964,12 @@ public class ASTree {
         break;
       case STOP_CODE: {
         // Pyc.Opcode.STOP_CODE
-        cleanBuild = false;
+        ctx.cleanBuild = false;
         return new ASTNodeList(defblock.nodes());
       }
       default:
-        Logger.log("Unsupported opcode: " + Pyc.OpcodeName(opcode));
-        cleanBuild = false;
+        Logger.warn("Unsupported opcode: ", Pyc.OpcodeName(opcode));
+        ctx.cleanBuild = false;
         return new ASTNodeList(defblock.nodes());
       }
 
@@ -2077,11 +2014,31 @@ public class ASTree {
       }
     }
 
-    cleanBuild = true;
+    ctx.cleanBuild = true;
     return new ASTNodeList(defblock.nodes());
   }
 
 
+  /* Pops count nodes into a right-sized list, in the order they were pushed */
+  static List<ASTNode> pop_nodes(FastStack stack, int count) {
+    List<ASTNode> nodes = new ArrayList<ASTNode>(Math.max(count, 0));
+    for (int i = 0; i < count; i++)
+      nodes.add(stack.pop());
+    Collections.reverse(nodes);
+    return nodes;
+  }
+
+  /* Pops count keyword arguments (each a key under its value) into the
+   * parallel key and value lists, in the order they were pushed */
+  static void pop_keywords(FastStack stack, int count, List<ASTNode> keys, List<ASTNode> values) {
+    for (int i = 0; i < count; i++) {
+      values.add(stack.pop());
+      keys.add(stack.pop());
+    }
+    Collections.reverse(keys);
+    Collections.reverse(values);
+  }
+
   static int cmp_prec(ASTNode parent, ASTNode child) {
     /* Determine whether the parent has higher precedence than therefore
        child, so we don't flood the source code with extraneous parens.
@@ -2115,7 +2072,7 @@ public class ASTree {
       } else if (parent.type() == ASTNode.Type.NODE_COMPARE) {
         return (unChild.op() == ASTUnary.UnOp.UN_NOT) ? 1 : -1;
       } else if (parent.type() == ASTNode.Type.NODE_UNARY) {
-        return ((ASTUnary.UnOp) unChild.op()).ordinal() - ((ASTUnary.UnOp) ((ASTUnary) parent).op()).ordinal();
+        return unChild.opordinal() - ((ASTUnary) parent).opordinal();
       }
     } else if (child.type() == ASTNode.Type.NODE_COMPARE) {
       ASTCompare cmpChild = (ASTCompare) child;
@@ -2132,53 +2089,49 @@ public class ASTree {
     return -1;
   }
 
-  static PrintStream pyc_output = PycData.pyc_output;
-
-  static void print_ordered(ASTNode parent, ASTNode child, PycModule mod) throws IOException {
+  static void print_ordered(ASTNode parent, ASTNode child, PycModule mod, DecompileContext ctx) throws IOException {
+    OutputSink pyc_output = ctx.sink();
     if (child.type() == ASTNode.Type.NODE_BINARY ||
         child.type() == ASTNode.Type.NODE_COMPARE) {
       if (cmp_prec(parent, child) > 0) {
-        pyc_output.printf("(");
-        print_src(child, mod);
-        pyc_output.printf(")");
+        pyc_output.append('(');
+        print_src(child, mod, ctx);
+        pyc_output.append(')');
       } else {
-        print_src(child, mod);
+        print_src(child, mod, ctx);
       }
     } else if (child.type() == ASTNode.Type.NODE_UNARY) {
       if (cmp_prec(parent, child) > 0) {
-        pyc_output.printf("(");
-        print_src(child, mod);
-        pyc_output.printf(")");
+        pyc_output.append('(');
+        print_src(child, mod, ctx);
+        pyc_output.append(')');
       } else {
-        print_src(child, mod);
+        print_src(child, mod, ctx);
       }
     } else {
-      print_src(child, mod);
+      print_src(child, mod, ctx);
     }
   }
 
-  static void start_line(int indent) {
-    if (inPrint || inLambda)
+  static void start_line(int indent, DecompileContext ctx) {
+    if (ctx.inPrint || ctx.inLambda)
       return;
-    for (int i = 0; i < indent; i++)
-      pyc_output.printf("    ");
+    bytecode.bc_indent(ctx.sink(), indent);
   }
 
-  static void end_line() {
-    if (inPrint || inLambda)
+  static void end_line(DecompileContext ctx) {
+    if (ctx.inPrint || ctx.inLambda)
       return;
-    pyc_output.printf("\n");
+    ctx.sink().append('\n');
   }
 
-  static int cur_indent = -1;
-
-  static void print_block(ASTBlock blk, PycModule mod) throws IOException {
-    LinkedList<ASTNode> lines = blk.nodes();
+  static void print_block(ASTBlock blk, PycModule mod, DecompileContext ctx) throws IOException {
+    List<ASTNode> lines = blk.nodes();
 
     if (lines.size() == 0) {
       ASTNode pass = new ASTNode(ASTNode.Type.NODE_PASS);
-      start_line(cur_indent);
-      print_src(pass, mod);
+      start_line(ctx.cur_indent, ctx);
+      print_src(pass, mod, ctx);
     }
 
     for (Iterator<ASTNode> ln = lines.iterator(); ln.hasNext();) {
@@ -2189,27 +2142,29 @@ public class ASTree {
       }
 
       if (next.type() != ASTNode.Type.NODE_NODELIST) {
-        start_line(cur_indent);
+        start_line(ctx.cur_indent, ctx);
       }
-      print_src(next, mod);
+      print_src(next, mod, ctx);
       if (ln.hasNext()) {
-        end_line();
+        end_line(ctx);
       }
     }
   }
 
-  static void print_comma(int cur_indent, boolean isfirst, PrintStream pyc_output) {
+  static void print_comma(int indent, boolean isfirst, DecompileContext ctx) {
+    OutputSink pyc_output = ctx.sink();
     if (isfirst)
-      pyc_output.printf("\n");
+      pyc_output.append('\n');
     else
-      pyc_output.printf(",\n");
-    start_line(cur_indent);
+      pyc_output.append(",\n");
+    start_line(indent, ctx);
   }
 
-  static void print_src(ASTNode node, PycModule mod) throws IOException {
+  static void print_src(ASTNode node, PycModule mod, DecompileContext ctx) throws IOException {
+    OutputSink pyc_output = ctx.sink();
     if (node == null || node == ASTNode.Node_NULL) {
-      pyc_output.printf("None");
-      cleanBuild = true;
+      pyc_output.append("None");
+      ctx.cleanBuild = true;
       return;
     }
 
@@ -2217,156 +2172,157 @@ public class ASTree {
     case NODE_BINARY:
     case NODE_COMPARE: {
       ASTBinary bin = (ASTBinary) node;
-      print_ordered(node, bin.left(), mod);
-      pyc_output.printf("%s", bin.op_str());
-      print_ordered(node, bin.right(), mod);
+      print_ordered(node, bin.left(), mod, ctx);
+      pyc_output.append(bin.op_str());
+      print_ordered(node, bin.right(), mod, ctx);
     }
       break;
     case NODE_UNARY: {
       ASTUnary un = (ASTUnary) node;
-      pyc_output.printf("%s", un.op_str());
-      print_ordered(node, un.operand(), mod);
+      pyc_output.append(un.op_str());
+      print_ordered(node, un.operand(), mod, ctx);
     }
       break;
     case NODE_CALL: {
       ASTCall call = (ASTCall) node;
-      print_src(call.func(), mod);
-      pyc_output.printf("(");
+      print_src(call.func(), mod, ctx);
+      pyc_output.append('(');
       boolean first = true;
       for (Iterator<ASTNode> p = call.pparams().iterator(); p.hasNext();) {
         if (!first)
-          pyc_output.printf(", ");
-        print_src(p.next(), mod);
+          pyc_output.append(", ");
+        print_src(p.next(), mod, ctx);
         first = false;
       }
-      for (Iterator<Pair<ASTNode, ASTNode>> iter = call.kwparams().iterator(); iter.hasNext();) {
+      List<ASTNode> kwkeys = call.kwkeys();
+      List<ASTNode> kwvalues = call.kwvalues();
+      for (int i = 0; i < kwkeys.size(); i++) {
         if (!first)
-          pyc_output.printf(", ");
-        Pair<ASTNode, ASTNode> p = iter.next();
-        ASTNode k = p.getKey();
+          pyc_output.append(", ");
+        ASTNode k = kwkeys.get(i);
         if (k instanceof ASTName)
-          pyc_output.printf("%s = ", k);
+          pyc_output.append(k.toString()).append(" = ");
         else {
           PycObject obj = ((ASTObject) k).object();
           if (obj instanceof PycString)
-            pyc_output.printf("%s = ", ((PycString) obj).value());
+            pyc_output.append(((PycString) obj).value()).append(" = ");
           else
-            pyc_output.printf("%s = ", ((ASTObject) k).object());
+            pyc_output.append(String.valueOf(((ASTObject) k).object())).append(" = ");
         }
 
-        ASTNode v = p.getValue();
+        ASTNode v = kwvalues.get(i);
         if (v instanceof ASTName)
-          print_src((ASTName) v, mod);
+          print_src((ASTName) v, mod, ctx);
         else
-          print_src(v, mod);
+          print_src(v, mod, ctx);
 
         first = false;
       }
       if (call.hasVar()) {
         if (!first)
-          pyc_output.printf(", ");
-        pyc_output.printf("*");
-        print_src(call.var(), mod);
+          pyc_output.append(", ");
+        pyc_output.append('*');
+        print_src(call.var(), mod, ctx);
         first = false;
       }
       if (call.hasKW()) {
         if (!first)
-          pyc_output.printf(", ");
-        pyc_output.printf("**");
-        print_src(call.kw(), mod);
+          pyc_output.append(", ");
+        pyc_output.append("**");
+        print_src(call.kw(), mod, ctx);
         first = false;
       }
-      pyc_output.printf(")");
+      pyc_output.append(')');
     }
       break;
     case NODE_DELETE: {
-      pyc_output.printf("del ");
-      print_src(((ASTDelete) node).value(), mod);
+      pyc_output.append("del ");
+      print_src(((ASTDelete) node).value(), mod, ctx);
     }
       break;
     case NODE_EXEC: {
       ASTExec exec = (ASTExec) node;
-      pyc_output.printf("exec ");
-      print_src(exec.statement(), mod);
+      pyc_output.append("exec ");
+      print_src(exec.statement(), mod, ctx);
 
       if (exec.globals() != ASTNode.Node_NULL) {
-        pyc_output.printf(" in ");
-        print_src(exec.globals(), mod);
+        pyc_output.append(" in ");
+        print_src(exec.globals(), mod, ctx);
 
         if (exec.locals() != ASTNode.Node_NULL 
             && exec.globals() != exec.locals()) {
-          pyc_output.printf(", ");
-          print_src(exec.locals(), mod);
+          pyc_output.append(", ");
+          print_src(exec.locals(), mod, ctx);
         }
       }
     }
       break;
     case NODE_KEYWORD:
-      pyc_output.printf("%s", ((ASTKeyword) node).word_str());
+      pyc_output.append(((ASTKeyword) node).word_str());
       break;
     case NODE_LIST: {
       List<ASTNode> values = ((ASTList) node).values();
-      pyc_output.printf("[");
+      pyc_output.append('[');
       boolean first = true;
-      cur_indent++;
+      ctx.cur_indent++;
       for (Iterator<ASTNode> b = values.iterator(); b.hasNext();) {
-        print_comma(cur_indent, first, pyc_output);
-        print_src(b.next(), mod);
+        print_comma(ctx.cur_indent, first, ctx);
+        print_src(b.next(), mod, ctx);
         first = false;
       }
-      cur_indent--;
-      pyc_output.printf("]");
+      ctx.cur_indent--;
+      pyc_output.append(']');
     }
       break;
     case NODE_COMPREHENSION: {
       ASTComprehension comp = (ASTComprehension) node;
       List<ASTIterBlock> values = comp.generators();
 
-      pyc_output.printf("[ ");
-      print_src(comp.result(), mod);
+      pyc_output.append("[ ");
+      print_src(comp.result(), mod, ctx);
 
       for (Iterator<ASTIterBlock> it = values.iterator(); it.hasNext();) {
         ASTIterBlock next = it.next();
 
-        pyc_output.printf(" for ");
-        print_src(next.index(), mod);
-        pyc_output.printf(" in ");
-        print_src(next.iter(), mod);
+        pyc_output.append(" for ");
+        print_src(next.index(), mod, ctx);
+        pyc_output.append(" in ");
+        print_src(next.iter(), mod, ctx);
       }
-      pyc_output.printf(" ]");
+      pyc_output.append(" ]");
     }
       break;
     case NODE_MAP: {
-      List<Pair<ASTNode, ASTNode>> values = ((ASTMap) node).values();
-      pyc_output.printf("{");
+      List<ASTNode> keys = ((ASTMap) node).keys();
+      List<ASTNode> values = ((ASTMap) node).values();
+      pyc_output.append('{');
       boolean first = true;
-      cur_indent++;
-      for (Iterator<Pair<ASTNode, ASTNode>> iter = values.iterator(); iter.hasNext();) {
-        print_comma(cur_indent, first, pyc_output);
-
-        Pair<ASTNode, ASTNode> b = iter.next();
-        start_line(cur_indent);
-        print_src(b.first(), mod);
-        pyc_output.printf(": ");
-        print_src(b.second(), mod);
+      ctx.cur_indent++;
+      for (int i = 0; i < keys.size(); i++) {
+        print_comma(ctx.cur_indent, first, ctx);
+
+        start_line(ctx.cur_indent, ctx);
+        print_src(keys.get(i), mod, ctx);
+        pyc_output.append(": ");
+        print_src(values.get(i), mod, ctx);
         first = false;
       }
-      cur_indent--;
-      pyc_output.printf(" }");
+      ctx.cur_indent--;
+      pyc_output.append(" }");
     }
       break;
     case NODE_NAME:
-      pyc_output.printf("%s", ((ASTName) node).name().value());
+      pyc_output.append(((ASTName) node).name().value());
       break;
     case NODE_NODELIST: {
-      cur_indent++;
+      ctx.cur_indent++;
       List<ASTNode> lines = ((ASTNodeList) node).nodes();
       for (Iterator<ASTNode> ln = lines.iterator(); ln.hasNext();) {
-        start_line(cur_indent);
-        print_src(ln.next(), mod);
-        end_line();
+        start_line(ctx.cur_indent, ctx);
+        print_src(ln.next(), mod, ctx);
+        end_line(ctx);
       }
-      cur_indent--;
+      ctx.cur_indent--;
     }
       break;
     case NODE_BLOCK: {
@@ -2376,53 +2332,53 @@ public class ASTree {
         break;
 
       if (blk.blktype() == ASTBlock.BlkType.BLK_CONTAINER) {
-        end_line();
-        print_block(blk, mod);
-        end_line();
+        end_line(ctx);
+        print_block(blk, mod, ctx);
+        end_line(ctx);
         break;
       }
-      inPrint = false;
+      ctx.inPrint = false;
 
-      pyc_output.printf("%s", blk.type_str());
+      pyc_output.append(blk.type_str());
 
       if (blk.blktype() == ASTBlock.BlkType.BLK_IF 
           || blk.blktype() == ASTBlock.BlkType.BLK_ELIF 
           || blk.blktype() == ASTBlock.BlkType.BLK_WHILE) {
         if (((ASTCondBlock) blk).negative())
-          pyc_output.printf(" not ");
+          pyc_output.append(" not ");
         else
-          pyc_output.printf(" ");
+          pyc_output.append(' ');
 
-        print_src(((ASTCondBlock) blk).cond(), mod);
+        print_src(((ASTCondBlock) blk).cond(), mod, ctx);
       } else if (blk.blktype() == ASTBlock.BlkType.BLK_FOR) {
-        pyc_output.printf(" ");
-        print_src(((ASTIterBlock) blk).index(), mod);
-        pyc_output.printf(" in ");
-        print_src(((ASTIterBlock) blk).iter(), mod);
+        pyc_output.append(' ');
+        print_src(((ASTIterBlock) blk).index(), mod, ctx);
+        pyc_output.append(" in ");
+        print_src(((ASTIterBlock) blk).iter(), mod, ctx);
       } else if (blk.blktype() == ASTBlock.BlkType.BLK_EXCEPT && 
            ((ASTCondBlock) blk).cond() != ASTNode.Node_NULL) {
-        pyc_output.printf(" ");
-        print_src(((ASTCondBlock) blk).cond(), mod);
+        pyc_output.append(' ');
+        print_src(((ASTCondBlock) blk).cond(), mod, ctx);
       } else if (blk.blktype() == ASTBlock.BlkType.BLK_WITH) {
-        pyc_output.printf(" ");
-        print_src(((ASTWithBlock) blk).expr(), mod);
+        pyc_output.append(' ');
+        print_src(((ASTWithBlock) blk).expr(), mod, ctx);
         ASTNode var = ((ASTWithBlock) blk).var();
         if (var != ASTNode.Node_NULL) {
-          pyc_output.printf(" as ");
-          print_src(var, mod);
+          pyc_output.append(" as ");
+          print_src(var, mod, ctx);
         }
       } else if (blk.blktype() == ASTBlock.BlkType.BLK_MAIN) {
         break;
       }
-      pyc_output.printf(":\n");
+      pyc_output.append(":\n");
 
-      cur_indent++;
-      print_block(blk, mod);
-      if (inPrint) {
-        pyc_output.printf(",");
+      ctx.cur_indent++;
+      print_block(blk, mod, ctx);
+      if (ctx.inPrint) {
+        pyc_output.append(',');
       }
-      cur_indent--;
-      inPrint = false;
+      ctx.cur_indent--;
+      ctx.inPrint = false;
     }
       break;
     case NODE_OBJECT: {
@@ -2430,82 +2386,82 @@ public class ASTree {
       if (obj instanceof PycCode) {
         PycObject obj_ = ((PycCode) obj).consts().get(0);
         if (obj_ instanceof PycString && ((PycString) obj_).length() > 0) {
-          PycString.OutputString((PycString) obj_, '\t', true);
-          pyc_output.printf("\n");
+          PycString.OutputString((PycString) obj_, '\t', true, pyc_output);
+          pyc_output.append('\n');
         }
       }
       if (obj.type() == PycObject.Type.TYPE_CODE) {
         PycCode code = (PycCode) obj;
-        decompyle(code, mod);
+        decompyle(code, mod, ctx);
       } else {
-        bytecode.print_const(obj, mod);
+        bytecode.print_const(obj, mod, pyc_output);
       }
     }
       break;
     case NODE_PASS:
-      pyc_output.printf("pass");
+      pyc_output.append("pass");
       break;
     case NODE_PRINT:
       ASTPrint _node = (ASTPrint) node;
       if (_node.value() == ASTNode.Node_NULL) {
-        if (!inPrint) {
-          pyc_output.printf("print ");
+        if (!ctx.inPrint) {
+          pyc_output.append("print ");
           if (_node.stream() != ASTNode.Node_NULL) {
-            pyc_output.printf(">>");
-            print_src(_node.stream(), mod);
+            pyc_output.append(">>");
+            print_src(_node.stream(), mod, ctx);
           }
         }
-        inPrint = false;
-      } else if (!inPrint) {
-        pyc_output.printf("print ");
+        ctx.inPrint = false;
+      } else if (!ctx.inPrint) {
+        pyc_output.append("print ");
         if (_node.stream() != ASTNode.Node_NULL) {
-          pyc_output.printf(">>");
-          print_src(_node.stream(), mod);
-          pyc_output.printf(", ");
+          pyc_output.append(">>");
+          print_src(_node.stream(), mod, ctx);
+          pyc_output.append(", ");
         }
-        print_src(_node.value(), mod);
-        inPrint = true;
+        print_src(_node.value(), mod, ctx);
+        ctx.inPrint = true;
       } else {
-        pyc_output.printf(", ");
-        print_src(_node.value(), mod);
+        pyc_output.append(", ");
+        print_src(_node.value(), mod, ctx);
       }
       break;
     case NODE_RAISE: {
       ASTRaise raise = (ASTRaise) node;
-      pyc_output.printf("raise ");
+      pyc_output.append("raise ");
       boolean first = true;
       for (Iterator<ASTNode> p = raise.params().iterator(); p.hasNext();) {
         if (!first)
-          pyc_output.printf(", ");
-        print_src(p.next(), mod);
+          pyc_output.append(", ");
+        print_src(p.next(), mod, ctx);
         first = false;
       }
     }
       break;
     case NODE_RETURN: {
       ASTReturn ret = (ASTReturn) node;
-      if (!inLambda) {
+      if (!ctx.inLambda) {
         switch (ret.rettype()) {
         case RETURN:
-          pyc_output.printf("return ");
+          pyc_output.append("return ");
           break;
         case YIELD:
-          pyc_output.printf("yield ");
+          pyc_output.append("yield ");
           break;
         }
       }
-      print_src(ret.value(), mod);
+      print_src(ret.value(), mod, ctx);
     }
       break;
     case NODE_SLICE: {
       ASTSlice slice = (ASTSlice) node;
 
       if (slice.op() == ASTSlice.SliceOp.SLICE1) {
-        print_src(slice.left(), mod);
+        print_src(slice.left(), mod, ctx);
       }
-      pyc_output.printf(":");
+      pyc_output.append(':');
       if (slice.op() == ASTSlice.SliceOp.SLICE2) {
-        print_src(slice.right(), mod);
+        print_src(slice.right(), mod, ctx);
       }
     }
       break;
@@ -2514,68 +2470,68 @@ public class ASTree {
       if (!import_.stores().isEmpty()) {
         List<ASTStore> stores = import_.stores();
 
-        pyc_output.printf("from ");
+        pyc_output.append("from ");
         if (import_.name().type() == ASTNode.Type.NODE_IMPORT)
-          print_src(((ASTImport) import_.name()).name(), mod);
+          print_src(((ASTImport) import_.name()).name(), mod, ctx);
         else
-          print_src(import_.name(), mod);
-        pyc_output.printf(" import ");
+          print_src(import_.name(), mod, ctx);
+        pyc_output.append(" import ");
 
         Iterator<ASTStore> iter = stores.iterator();
         if (stores.size() == 1) {
           ASTStore ii = iter.next();
-          print_src(ii.src(), mod);
+          print_src(ii.src(), mod, ctx);
 
           String s1 = ((ASTName) ii.src()).name().value();
           String s2 = ((ASTName) ii.dest()).name().value();
           if (!s1.equals(s2)) {
-            pyc_output.printf(" as ");
-            print_src(ii.dest(), mod);
+            pyc_output.append(" as ");
+            print_src(ii.dest(), mod, ctx);
           }
         } else {
           boolean first = true;
           for (; iter.hasNext();) {
             ASTStore ii = iter.next();
             if (!first)
-              pyc_output.printf(", ");
-            print_src(ii.src(), mod);
+              pyc_output.append(", ");
+            print_src(ii.src(), mod, ctx);
             first = false;
 
             String s1 = ((ASTName) ii.src()).name().value();
             String s2 = ((ASTName) ii.dest()).name().value();
             if (!s1.equals(s2)) {
-              pyc_output.printf(" as ");
-              print_src(ii.dest(), mod);
+              pyc_output.append(" as ");
+              print_src(ii.dest(), mod, ctx);
             }
           }
         }
       } else {
-        pyc_output.printf("import ");
-        print_src(import_.name(), mod);
+        pyc_output.append("import ");
+        print_src(import_.name(), mod, ctx);
       }
     }
       break;
     case NODE_FUNCTION: {
       /* Actual named functions are NODE_STORE with a name */
-      pyc_output.printf("lambda ");
+      pyc_output.append("lambda ");
       ASTNode code = ((ASTFunction) node).code();
       PycCode code_src = (PycCode) ((ASTObject) code).object();
       List<ASTNode> defargs = ((ASTFunction) node).defargs();
       Iterator<ASTNode> da = defargs.iterator();
       for (int i = 0; i < code_src.argCount(); i++) {
         if (i > 0)
-          pyc_output.printf(", ");
-        pyc_output.printf("%s", code_src.getVarName(i).value());
+          pyc_output.append(", ");
+        pyc_output.append(code_src.getVarName(i).value());
         if ((code_src.argCount() - i) <= (int) defargs.size()) {
-          pyc_output.printf(" = ");
-          print_src(da.next(), mod);
+          pyc_output.append(" = ");
+          print_src(da.next(), mod, ctx);
         }
       }
-      pyc_output.printf(": ");
+      pyc_output.append(": ");
 
-      inLambda = true;
-      print_src(code, mod);
-      inLambda = false;
+      ctx.inLambda = true;
+      print_src(code, mod, ctx);
+      ctx.inLambda = false;
     }
       break;
     case NODE_STORE: {
@@ -2589,17 +2545,17 @@ public class ASTree {
         boolean isLambda = false;
 
         if (code_src.name().value().equals("<lambda>")) {
-          pyc_output.printf("\n");
-          start_line(cur_indent);
-          print_src(dest, mod);
-          pyc_output.printf(" = lambda ");
+          pyc_output.append('\n');
+          start_line(ctx.cur_indent, ctx);
+          print_src(dest, mod, ctx);
+          pyc_output.append(" = lambda ");
           isLambda = true;
         } else {
-          pyc_output.printf("\n");
-          start_line(cur_indent);
-          pyc_output.printf("def ");
-          print_src(dest, mod);
-          pyc_output.printf("(");
+          pyc_output.append('\n');
+          start_line(ctx.cur_indent, ctx);
+          pyc_output.append("def ");
+          print_src(dest, mod, ctx);
+          pyc_output.append('(');
         }
 
         List<ASTNode> defargs = ((ASTFunction) src).defargs();
@@ -2607,53 +2563,53 @@ public class ASTree {
         boolean first = true;
         for (int i = 0; i < code_src.argCount(); i++) {
           if (!first)
-            pyc_output.printf(", ");
-          pyc_output.printf("%s", code_src.getVarName(i).value());
+            pyc_output.append(", ");
+          pyc_output.append(code_src.getVarName(i).value());
           if ((code_src.argCount() - i) <= (int) defargs.size()) {
-            pyc_output.printf(" = ");
-            print_src(da.next(), mod);
+            pyc_output.append(" = ");
+            print_src(da.next(), mod, ctx);
           }
           first = false;
         }
         if ((code_src.flags() & PycCode.CodeFlags.CO_VARARGS) != 0) {
           if (!first)
-            pyc_output.printf(", ");
-          pyc_output.printf("*%s", code_src.getVarName(code_src.argCount()).value());
+            pyc_output.append(", ");
+          pyc_output.append("*").append(code_src.getVarName(code_src.argCount()).value());
           first = false;
         }
         if ((code_src.flags() & PycCode.CodeFlags.CO_VARKEYWORDS) != 0) {
           if (!first)
-            pyc_output.printf(", ");
+            pyc_output.append(", ");
 
           int idx = code_src.argCount();
           if ((code_src.flags() & PycCode.CodeFlags.CO_VARARGS) != 0) {
             idx++;
           }
-          pyc_output.printf("**%s", code_src.getVarName(idx).value());
+          pyc_output.append("**").append(code_src.getVarName(idx).value());
           first = false;
         }
 
         if (isLambda) {
-          pyc_output.printf(": ");
+          pyc_output.append(": ");
         } else {
-          pyc_output.printf("):\n");
-          printGlobals = true;
+          pyc_output.append("):\n");
+          ctx.printGlobals = true;
         }
 
-        boolean preLambda = inLambda;
-        inLambda |= isLambda;
+        boolean preLambda = ctx.inLambda;
+        ctx.inLambda |= isLambda;
 
-        print_src(code, mod);
+        print_src(code, mod, ctx);
 
-        inLambda = preLambda;
+        ctx.inLambda = preLambda;
       } else if (src.type() == ASTNode.Type.NODE_CLASS) {
-        pyc_output.printf("\n");
-        start_line(cur_indent);
-        pyc_output.printf("class ");
-        print_src(dest, mod);
+        pyc_output.append('\n');
+        start_line(ctx.cur_indent, ctx);
+        pyc_output.append("class ");
+        print_src(dest, mod, ctx);
 
 //        ASTTuple bases = (ASTTuple) ((ASTClass) src).bases();
-        List<ASTNode> values = new LinkedList<ASTNode>();
+        List<ASTNode> values = ASTNode.NO_NODES;
         ASTNode bases = ((ASTClass) src).bases();
 //         Logger.log("\n    '''---->bases class name: " +
 //         bases.getClass().getName() + "'''\n");
@@ -2661,37 +2617,37 @@ public class ASTree {
           values = ((ASTTuple) bases).values();
         
         if (values.size() > 0) {
-          pyc_output.printf("(");
+          pyc_output.append('(');
           boolean first = true;
           for (Iterator<ASTNode> b = values.iterator(); b.hasNext();) {
             if (!first)
-              pyc_output.printf(", ");
-            print_src(b.next(), mod);
+              pyc_output.append(", ");
+            print_src(b.next(), mod, ctx);
             first = false;
           }
-          pyc_output.printf("):\n");
+          pyc_output.append("):\n");
         } else {
           // Don't put parens if there are no base classes
-          pyc_output.printf(":\n");
+          pyc_output.append(":\n");
         }
 
         ASTNode code = ((ASTFunction) ((ASTCall) ((ASTClass) src).code()).func()).code();
-        print_src(code, mod);
+        print_src(code, mod, ctx);
       } else if (src.type() == ASTNode.Type.NODE_IMPORT) {
         ASTImport import_ = (ASTImport) src;
         if (import_.fromlist() != ASTNode.Node_NULL) {
-          pyc_output.printf("from ");
+          pyc_output.append("from ");
           if (import_.name().type() == ASTNode.Type.NODE_IMPORT)
-            print_src(((ASTImport) import_.name()).name(), mod);
+            print_src(((ASTImport) import_.name()).name(), mod, ctx);
           else
-            print_src(import_.name(), mod);
-          pyc_output.printf(" import ");
+            print_src(import_.name(), mod, ctx);
+          pyc_output.append(" import ");
 
           ASTNode astnode = import_.fromlist();
           if (astnode instanceof ASTObject) {
             PycObject fromlist = ((ASTObject) astnode).object();
             if (fromlist.type() == PycObject.Type.TYPE_STRING) {
-              pyc_output.printf("%s", ((PycString) fromlist).value());
+              pyc_output.append(((PycString) fromlist).value());
             }
           } else if (astnode instanceof ASTTuple) {
             ASTTuple fromlist = (ASTTuple)astnode;
@@ -2699,28 +2655,28 @@ public class ASTree {
             for (Iterator<ASTNode> ii = fromlist.values().iterator(); ii.hasNext();) {
               PycObject pycobj = ((ASTObject) ii.next()).object();
               if (!first)
-                pyc_output.printf(", ");
+                pyc_output.append(", ");
               for (PycObject p : ((PycTuple) pycobj).values())
-                pyc_output.printf("%s", ((PycString) p).value());
+                pyc_output.append(((PycString) p).value());
               first = false;
             }
           } else {
-            pyc_output.printf("import ");
-            print_src(import_.name(), mod);
+            pyc_output.append("import ");
+            print_src(import_.name(), mod, ctx);
           }
         } else {
-          pyc_output.printf("import ");
+          pyc_output.append("import ");
           ASTNode import_name = import_.name();
-          print_src(import_name, mod);
+          print_src(import_name, mod, ctx);
           if (!((ASTName) dest).name().isEqual((PycObject) ((ASTName) import_name).name())) {
-            pyc_output.printf(" as ");
-            print_src(dest, mod);
+            pyc_output.append(" as ");
+            print_src(dest, mod, ctx);
           }
         }
       } else {
         if (src.type() == ASTNode.Type.NODE_BINARY && 
             ((ASTBinary) src).is_inplace()) {
-          print_src(src, mod);
+          print_src(src, mod, ctx);
           break;
         }
 
@@ -2732,72 +2688,75 @@ public class ASTree {
                 //obj.type() == PycObject.Type.TYPE_STRING ||
                 obj.type() == PycObject.Type.TYPE_INTERNED ||
                 obj.type() == PycObject.Type.TYPE_STRINGREF)
-              PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0, true);
+              PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0, true, pyc_output);
             else if (obj.type() == PycObject.Type.TYPE_UNICODE)
-              PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u', true);
+              PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u', true, pyc_output);
           } else {
-            print_src(dest, mod);
-            pyc_output.printf(" = ");
-            print_src(src, mod);
+            print_src(dest, mod, ctx);
+            pyc_output.append(" = ");
+            print_src(src, mod, ctx);
           }
         } else {
-          print_src(dest, mod);
-          pyc_output.printf(" = ");
-          print_src(src, mod);
+          print_src(dest, mod, ctx);
+          pyc_output.append(" = ");
+          print_src(src, mod, ctx);
         }
       }
     }
       break;
     case NODE_SUBSCR: {
-      print_src(((ASTSubscr) node).name(), mod);
-      pyc_output.printf("[");
-      print_src(((ASTSubscr) node).key(), mod);
-      pyc_output.printf("]");
+      print_src(((ASTSubscr) node).name(), mod, ctx);
+      pyc_output.append('[');
+      print_src(((ASTSubscr) node).key(), mod, ctx);
+      pyc_output.append(']');
     }
       break;
     case NODE_CONVERT: {
-      pyc_output.printf("`");
-      print_src(((ASTConvert) node).name(), mod);
-      pyc_output.printf("`");
+      pyc_output.append('`');
+      print_src(((ASTConvert) node).name(), mod, ctx);
+      pyc_output.append('`');
     }
       break;
     case NODE_TUPLE: {
       List<ASTNode> values = ((ASTTuple) node).values();
-      pyc_output.printf("(");
+      pyc_output.append('(');
       boolean first = true;
       for (Iterator<ASTNode> b = values.iterator(); b.hasNext();) {
         if (!first)
-          pyc_output.printf(", ");
-        print_src(b.next(), mod);
+          pyc_output.append(", ");
+        print_src(b.next(), mod, ctx);
         first = false;
       }
       if (values.size() == 1)
-        pyc_output.printf(",)");
+        pyc_output.append(",)");
       else
-        pyc_output.printf(")");
+        pyc_output.append(')');
     }
       break;
     default:
-      pyc_output.printf("<NODE:%s>", node.type());
+      pyc_output.append("<NODE:").append(String.valueOf(node.type())).append('>');
       //System.err.printf("Unsupported Node type: %s\n", node.type());
-      cleanBuild = false;
+      ctx.cleanBuild = false;
       return;
     }
 
-    cleanBuild = true;
+    ctx.cleanBuild = true;
   }
 
-  static void decompyle(PycCode code, PycModule mod) throws IOException {
-    ASTNode source = BuildFromCode(code, mod);
+  static void decompyle(PycCode code, PycModule mod, DecompileContext ctx) throws IOException {
+    OutputSink pyc_output = ctx.sink();
+    ASTNode source = ctx.takeBuilt(code);
+    if (source == null)
+      source = BuildFromCode(code, mod, ctx);
 
     ASTNodeList clean = (ASTNodeList) source;
-    if (cleanBuild) {
+    if (ctx.cleanBuild) {
       // The Python compiler adds some stuff that we don't really care
       // about, and would add extra code for re-compilation anyway.
       // We strip these lines out here, and then add a "pass" statement
       // if the cleaned up code is isEmpty
-      if (clean.nodes().getFirst().type() == ASTNode.Type.NODE_STORE) {
-        ASTStore store = (ASTStore) clean.nodes().getFirst();
+      if (clean.nodes().get(0).type() == ASTNode.Type.NODE_STORE) {
+        ASTStore store = (ASTStore) clean.nodes().get(0);
         if (store.src().type() == ASTNode.Type.NODE_NAME && 
             store.dest().type() == ASTNode.Type.NODE_NAME) {
           ASTName src = ((ASTName) store.src());
@@ -2809,8 +2768,8 @@ public class ASTree {
           }
         }
       }
-      if (clean.nodes().getLast().type() == ASTNode.Type.NODE_RETURN) {
-        ASTReturn ret = (ASTReturn) clean.nodes().getLast();
+      if (clean.nodes().get(clean.nodes().size() - 1).type() == ASTNode.Type.NODE_RETURN) {
+        ASTReturn ret = (ASTReturn) clean.nodes().get(clean.nodes().size() - 1);
 
         if (null != ret.value())
         if (ret.value() == ASTNode.Node_NULL || ret.value().type() == ASTNode.Type.NODE_LOCALS) {
@@ -2823,29 +2782,29 @@ public class ASTree {
     if (clean.nodes().size() == 0)
       clean.append(new ASTNode(ASTNode.Type.NODE_PASS));
 
-    inPrint = false;
-    boolean part1clean = cleanBuild;
+    ctx.inPrint = false;
+    boolean part1clean = ctx.cleanBuild;
 
     Set<PycObject> globs = code.getGlobals();
-    if (printGlobals && globs.size() > 0) {
-      start_line(cur_indent + 1);
-      pyc_output.printf("global ");
+    if (ctx.printGlobals && globs.size() > 0) {
+      start_line(ctx.cur_indent + 1, ctx);
+      pyc_output.append("global ");
       boolean first = true;
       for (Iterator<PycObject> it = globs.iterator(); it.hasNext();) {
         if (!first)
-          pyc_output.printf(", ");
-        pyc_output.printf("%s", ((PycString) it.next()).value());
+          pyc_output.append(", ");
+        pyc_output.append(((PycString) it.next()).value());
         first = false;
       }
-      pyc_output.printf("\n");
-      printGlobals = false;
+      pyc_output.append('\n');
+      ctx.printGlobals = false;
     }
 
-    print_src(source, mod);
+    print_src(source, mod, ctx);
 
-    if (!cleanBuild || !part1clean) {
-      start_line(cur_indent);
-      pyc_output.printf("# WARNING: Decompyle incomplete\n");
+    if (!ctx.cleanBuild || !part1clean) {
+      start_line(ctx.cur_indent, ctx);
+      pyc_output.append("# WARNING: Decompyle incomplete\n");
     }
   }
 }
@@ -0,0 +1,175 @@
+package pydecompiler.dis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+
+import pydecompiler.util.Logger;
+import pydecompiler.util.NullSink;
+import pydecompiler.util.OutputSink;
+
+/* State for one decompilation run.  Everything ASTree used to keep in
+ * statics lives here, so independent contexts can decompile different
+ * modules on different threads at the same time.  A context itself is not
+ * thread-safe and should be used for one module at a time. */
+public class DecompileContext {
+  /* Use this to determine if an error occurred (and therefore, if we should
+   * avoid cleaning the output tree) */
+  boolean cleanBuild;
+
+  /* Keep track of whether we're in a print statement, so we can make
+   * chained prints (print x, y, z) prettier */
+  boolean inPrint;
+
+  /* Use this to prevent printing return keywords and newlines in lambdas. */
+  boolean inLambda = false;
+
+  /* Use this to keep track of whether we need to print out the list of global
+   * variables that we are using (such as inside a function). */
+  boolean printGlobals = false;
+
+  int cur_indent = -1;
+
+  private final OutputSink m_sink;
+  private boolean m_header = true;
+  private boolean m_parallel = true;
+  private boolean m_lazy = false;
+
+  /* ASTs built ahead of printing, keyed by code object identity */
+  private final Map<PycCode, Built> m_built = new ConcurrentHashMap<PycCode, Built>();
+
+  static final class Built {
+    final ASTNode m_source;
+    final boolean m_clean;
+
+    Built(ASTNode source, boolean clean) {
+      m_source = source;
+      m_clean = clean;
+    }
+  }
+
+  public DecompileContext(OutputSink sink) {
+    m_sink = sink;
+  }
+
+  public OutputSink sink() {
+    return m_sink;
+  }
+
+  /* Whether decompile() starts with the "# Source Generated" banner */
+  public DecompileContext setHeader(boolean header) {
+    m_header = header;
+    return this;
+  }
+
+  public boolean header() {
+    return m_header;
+  }
+
+  /* Whether the ASTs of nested code objects are built on a fork-join pool
+   * before printing starts, rather than one at a time as they are printed */
+  public DecompileContext setParallel(boolean parallel) {
+    m_parallel = parallel;
+    return this;
+  }
+
+  public boolean parallel() {
+    return m_parallel;
+  }
+
+  /* Whether decompile(filename, ...) defers unmarshalling nested code
+   * objects until they are first used.  With parallel builds, each body is
+   * then read by the worker that builds it instead of all up front. */
+  public DecompileContext setLazy(boolean lazy) {
+    m_lazy = lazy;
+    return this;
+  }
+
+  public boolean lazy() {
+    return m_lazy;
+  }
+
+  /* Loads a compiled module and writes its decompiled source to the sink.
+   * dispname is the file name shown in the banner. */
+  public void decompile(String filename, String dispname) throws IOException {
+    PycModule mod = new PycModule();
+    mod.setLazy(m_lazy);
+    mod.loadFromFile(filename);
+    decompile(mod, dispname);
+  }
+
+  void decompile(PycModule mod, String dispname) throws IOException {
+    cleanBuild = false;
+    inPrint = false;
+    inLambda = false;
+    printGlobals = false;
+    cur_indent = -1;
+
+    if (m_header) {
+      m_sink.append("# Source Generated with Decompyle++\n");
+      m_sink.append("# File: ").append(dispname).append(" (Python ").append(mod.majorVer()).append('.')
+          .append(mod.minorVer()).append((mod.majorVer() < 3 && mod.isUnicode()) ? " Unicode" : "").append(")\n\n");
+    }
+    m_built.clear();
+    /* Traces from concurrent builds would interleave, so build as we print */
+    if (m_parallel && !Logger.isTracing(Logger.STACK | Logger.BLOCK))
+      new BuildTask(mod.code(), mod).invoke();
+    try {
+      ASTree.decompyle(mod.code(), mod, this);
+    } finally {
+      m_built.clear();
+    }
+  }
+
+  /* The prebuilt AST for code, or null if it has to be built now.  Sets
+   * cleanBuild as BuildFromCode would have. */
+  ASTNode takeBuilt(PycCode code) {
+    Built built = m_built.remove(code);
+    if (built == null)
+      return null;
+    cleanBuild = built.m_clean;
+    return built.m_source;
+  }
+
+  /* Builds one code object's AST while its nested functions, classes and
+   * lambdas are built by forked subtasks.  Runs in the caller's pool when
+   * called from a batch worker, and in the common pool otherwise. */
+  private class BuildTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final PycCode m_code;
+    private final PycModule m_mod;
+
+    BuildTask(PycCode code, PycModule mod) {
+      m_code = code;
+      m_mod = mod;
+    }
+
+    @Override
+    protected void compute() {
+      List<BuildTask> nested = new ArrayList<BuildTask>();
+      try {
+        PycSequence consts = m_code.consts();
+        for (int i = 0; i < consts.size(); i++) {
+          PycObject obj = consts.get(i);
+          if (obj != null && obj.type() == PycObject.Type.TYPE_CODE)
+            nested.add(new BuildTask((PycCode) obj, m_mod));
+        }
+        for (BuildTask task : nested)
+          task.fork();
+
+        /* BuildFromCode only records cleanBuild in its context */
+        DecompileContext scratch = new DecompileContext(NullSink.INSTANCE);
+        ASTNode source = ASTree.BuildFromCode(m_code, m_mod, scratch);
+        m_built.put(m_code, new Built(source, scratch.cleanBuild));
+      } catch (IOException | RuntimeException | StackOverflowError ex) {
+        /* Not recorded: decompyle() builds it again when it gets there, so
+         * the failure surfaces at the same point as in a serial run */
+      }
+      for (int i = nested.size() - 1; i >= 0; i--)
+        nested.get(i).join();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package pydecompiler.dis;
+
+import pydecompiler.util.FastStack;
+import pydecompiler.util.Stack;
+
+/* Working storage for one ASTree.BuildFromCode call, kept per thread and
+ * reused from one code object to the next: the evaluation stack's array,
+ * the stack history, the block stack and DUP_TOPX scratch.  release()
+ * empties all of it in one step once the build returns, so nothing from a
+ * finished function stays reachable through the arena.
+ *
+ * The AST nodes themselves are not pooled.  They outlive the build (they
+ * are printed afterwards, possibly on another thread when prebuilt), and
+ * the JVM already bump-allocates them out of a thread-local buffer, which
+ * is the arena a pool would try to imitate. */
+class ASTArena {
+  private static final ThreadLocal<ASTArena> s_arena = ThreadLocal.withInitial(ASTArena::new);
+
+  final FastStack m_stack = new FastStack(64);
+  final Stack<FastStack> m_stackHist = new Stack<FastStack>();
+  final Stack<ASTBlock> m_blocks = new Stack<ASTBlock>();
+  final Stack<ASTNode> m_scratch = new Stack<ASTNode>();
+  private boolean m_inUse;
+
+  /* This thread's arena, or a private one if it is already taken */
+  static ASTArena acquire(int stackSize) {
+    ASTArena arena = s_arena.get();
+    if (arena.m_inUse)
+      arena = new ASTArena();
+    arena.m_inUse = true;
+    arena.m_stack.reset(stackSize);
+    return arena;
+  }
+
+  void release() {
+    /* Snapshots only live in m_stackHist, so the stack array is free again */
+    m_stack.reset(0);
+    m_stackHist.clear();
+    m_blocks.clear();
+    m_scratch.clear();
+    m_inUse = false;
+  }
+}
+
+public class ast_arena {
+
+}
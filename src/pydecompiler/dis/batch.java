@@ -0,0 +1,345 @@
+package pydecompiler.dis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import pydecompiler.util.OutputSink;
+import pydecompiler.util.WriterSink;
+
+/* Command line driver shared by pycdc and pycdas.
+ *
+ *   [-o outdir] [-j threads] [-l] input...
+ *
+ * An input is a .pyc/.pyo file, a directory (searched recursively), a glob
+ * pattern such as lib/**.pyc, an @file listing one input per line, or a
+ * .zip/.egg/.whl archive.  A single plain file with no -o is written to
+ * standard output as before; anything else writes one output file per
+ * module, next to its input or mirrored under outdir, using a work-stealing
+ * pool sized to the machine.  An input whose output file another input
+ * already claims is reported and skipped rather than raced.  With -l,
+ * nested code objects are unmarshalled on first use rather than on load. */
+class PycBatch {
+  interface Job {
+    void run(PycModule mod, String dispname, OutputSink out) throws IOException;
+  }
+
+  /* One module to process: a file on disk or an entry of an archive */
+  static class Source {
+    final Path m_file;
+    final String m_entry;
+    final Path m_relative; /* Output path below the output root */
+
+    Source(Path file, String entry, Path relative) {
+      m_file = file;
+      m_entry = entry;
+      m_relative = relative;
+    }
+
+    String displayName() {
+      return (m_entry == null) ? m_file.toString() : m_file + "!" + m_entry;
+    }
+  }
+
+  private final String m_extension;
+  private final Job m_job;
+  private Path m_outDir;
+  private int m_threads = Runtime.getRuntime().availableProcessors();
+  private boolean m_lazy;
+  private final List<Source> m_sources = new ArrayList<Source>();
+  private final AtomicInteger m_failed = new AtomicInteger();
+  private boolean m_expanded; /* Some input named more than one file */
+  private final Map<Path, ZipFile> m_archives = new HashMap<Path, ZipFile>();
+
+  PycBatch(String extension, Job job) {
+    m_extension = extension;
+    m_job = job;
+  }
+
+  static boolean isCompiled(String name) {
+    return name.endsWith(".pyc") || name.endsWith(".pyo");
+  }
+
+  static boolean isArchive(String name) {
+    return name.endsWith(".zip") || name.endsWith(".egg") || name.endsWith(".whl");
+  }
+
+  static boolean isGlob(String arg) {
+    return arg.indexOf('*') >= 0 || arg.indexOf('?') >= 0 || arg.indexOf('[') >= 0 || arg.indexOf('{') >= 0;
+  }
+
+  /* Returns false (after reporting why) if the arguments are unusable */
+  boolean parseArgs(String[] args) throws IOException {
+    List<String> inputs = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-o") && i + 1 < args.length) {
+        m_outDir = Paths.get(args[++i]);
+      } else if (args[i].equals("-j") && i + 1 < args.length) {
+        try {
+          m_threads = Math.max(1, Integer.parseInt(args[++i]));
+        } catch (NumberFormatException ex) {
+          System.err.printf("Bad thread count %s\n", args[i]);
+          return false;
+        }
+      } else if (args[i].equals("-l")) {
+        m_lazy = true;
+      } else if (args[i].startsWith("-") && args[i].length() > 1) {
+        System.err.printf("Unknown option %s\n", args[i]);
+        return false;
+      } else {
+        inputs.add(args[i]);
+      }
+    }
+
+    if (inputs.isEmpty()) {
+      System.err.printf("No input file specified\n");
+      return false;
+    }
+
+    for (String input : inputs)
+      addInput(input);
+    return true;
+  }
+
+  private void addInput(String arg) throws IOException {
+    if (arg.startsWith("@")) {
+      m_expanded = true;
+      for (String line : Files.readAllLines(Paths.get(arg.substring(1)), StandardCharsets.UTF_8)) {
+        line = line.trim();
+        if (!line.isEmpty() && !line.startsWith("#"))
+          addInput(line);
+      }
+      return;
+    }
+
+    if (isGlob(arg)) {
+      m_expanded = true;
+      addGlob(arg);
+      return;
+    }
+
+    Path path = Paths.get(arg);
+    if (!Files.exists(path)) {
+      /* Historically inputs were taken relative to the classpath root */
+      String dir = pycdas.getDir();
+      if (dir != null && Files.exists(Paths.get(dir + arg)))
+        path = Paths.get(dir + arg);
+    }
+
+    if (Files.isDirectory(path)) {
+      m_expanded = true;
+      addTree(path, path, null);
+    } else if (isArchive(path.toString())) {
+      m_expanded = true;
+      addArchive(path);
+    } else {
+      m_sources.add(new Source(path, null, path.getFileName()));
+    }
+  }
+
+  private void addTree(Path base, Path start, PathMatcher matcher) throws IOException {
+    try (Stream<Path> walk = Files.walk(start)) {
+      walk.filter(p -> isCompiled(p.getFileName().toString()) && Files.isRegularFile(p))
+          .filter(p -> matcher == null || matcher.matches(base.relativize(p)))
+          .sorted()
+          .forEach(p -> m_sources.add(new Source(p, null, base.relativize(p))));
+    }
+  }
+
+  /* The directories before the first wildcard are walked, and the rest of
+   * the pattern is matched against paths relative to them */
+  private void addGlob(String pattern) throws IOException {
+    Path full = Paths.get(pattern);
+    Path base = (full.getRoot() != null) ? full.getRoot() : Paths.get(".");
+    int i = 0;
+    for (; i < full.getNameCount() - 1 && !isGlob(full.getName(i).toString()); i++)
+      base = base.resolve(full.getName(i));
+    String rest = full.subpath(i, full.getNameCount()).toString();
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + rest);
+    if (Files.isDirectory(base))
+      addTree(base, base, matcher);
+  }
+
+  private void addArchive(Path archive) throws IOException {
+    String name = archive.getFileName().toString();
+    Path root = Paths.get(name.substring(0, name.lastIndexOf('.')));
+    if (m_archives.containsKey(archive))
+      return;
+    /* Kept open until the run ends; ZipFile allows concurrent reads */
+    ZipFile zip = new ZipFile(archive.toFile());
+    m_archives.put(archive, zip);
+    zip.stream()
+        .filter(e -> !e.isDirectory() && isCompiled(e.getName()))
+        .forEach(e -> m_sources.add(new Source(archive, e.getName(), root.resolve(e.getName()))));
+  }
+
+  private Path outputPath(Source src) {
+    Path relative = src.m_relative;
+    String name = relative.getFileName().toString();
+    String renamed = name.substring(0, name.length() - (isCompiled(name) ? 4 : 0)) + m_extension;
+    relative = relative.resolveSibling(renamed);
+
+    if (m_outDir != null)
+      return m_outDir.resolve(relative.toString());
+    if (src.m_entry != null)
+      return src.m_file.resolveSibling(relative.toString());
+    return src.m_file.resolveSibling(renamed);
+  }
+
+  /* Keeps the first source for each output file.  The same input named
+   * twice is dropped quietly; a different input (a/x.pyc and b/x.pyc under
+   * one -o directory) is reported.  Returns the number reported. */
+  private int dropConflicts() {
+    Map<Path, Source> targets = new HashMap<Path, Source>();
+    List<Source> kept = new ArrayList<Source>(m_sources.size());
+    int conflicts = 0;
+    for (Source src : m_sources) {
+      Path target = outputPath(src).toAbsolutePath().normalize();
+      Source first = targets.putIfAbsent(target, src);
+      if (first == null) {
+        kept.add(src);
+      } else if (!sameInput(first, src)) {
+        conflicts++;
+        System.err.printf("Error processing %s: %s is already written for %s\n",
+                          src.displayName(), target, first.displayName());
+      }
+    }
+    m_sources.clear();
+    m_sources.addAll(kept);
+    return conflicts;
+  }
+
+  private static boolean sameInput(Source a, Source b) {
+    if (a.m_entry == null ? b.m_entry != null : !a.m_entry.equals(b.m_entry))
+      return false;
+    return a.m_file.toAbsolutePath().normalize().equals(b.m_file.toAbsolutePath().normalize());
+  }
+
+  private PycModule load(Source src) throws IOException {
+    PycModule mod = new PycModule();
+    mod.setLazy(m_lazy);
+    if (src.m_entry == null) {
+      mod.loadFromFile(src.m_file.toString());
+    } else {
+      ZipFile zip = m_archives.get(src.m_file);
+      ZipEntry entry = zip.getEntry(src.m_entry);
+      try (InputStream in = zip.getInputStream(entry)) {
+        byte[] data = in.readAllBytes();
+        mod.loadFromBuffer(data, data.length);
+      }
+    }
+    return mod;
+  }
+
+  void process(Source src, OutputSink out) throws IOException {
+    PycModule mod = load(src);
+    if (mod.code() == null)
+      throw new IOException("not a loadable Python module");
+    String dispname = Paths.get(src.m_entry == null ? src.m_file.toString() : src.m_entry).getFileName().toString();
+    m_job.run(mod, dispname, out);
+  }
+
+  private void processToFile(Source src) {
+    Path target = outputPath(src);
+    try {
+      if (target.getParent() != null)
+        Files.createDirectories(target.getParent());
+      try (OutputSink out = WriterSink.open(target)) {
+        process(src, out);
+      }
+    } catch (IOException | RuntimeException | StackOverflowError ex) {
+      m_failed.incrementAndGet();
+      System.err.printf("Error processing %s: %s\n", src.displayName(), ex);
+      try {
+        Files.deleteIfExists(target); // Don't leave a truncated result behind
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /* Splits the source list in halves until single modules remain, so idle
+   * workers steal the larger untouched ranges */
+  private class Split extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final int m_from;
+    private final int m_to;
+
+    Split(int from, int to) {
+      m_from = from;
+      m_to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (m_to - m_from == 1) {
+        processToFile(m_sources.get(m_from));
+        return;
+      }
+      int mid = (m_from + m_to) >>> 1;
+      invokeAll(new Split(m_from, mid), new Split(mid, m_to));
+    }
+  }
+
+  /* Returns the number of inputs that could not be processed */
+  int run(String[] args) throws IOException {
+    try {
+      return runSources(args);
+    } finally {
+      for (ZipFile zip : m_archives.values())
+        zip.close();
+    }
+  }
+
+  private int runSources(String[] args) throws IOException {
+    if (!parseArgs(args))
+      return 1;
+
+    if (m_sources.size() == 1 && !m_expanded && m_outDir == null) {
+      OutputSink out = WriterSink.stdout();
+      try {
+        process(m_sources.get(0), out);
+      } catch (IOException ex) {
+        System.err.printf("Error processing %s: %s\n", m_sources.get(0).displayName(), ex.getMessage());
+        return 1;
+      } finally {
+        out.close();
+      }
+      return 0;
+    }
+
+    if (m_sources.isEmpty()) {
+      System.err.printf("No .pyc or .pyo files found\n");
+      return 0;
+    }
+
+    m_failed.addAndGet(dropConflicts());
+    int total = m_sources.size() + m_failed.get();
+    ForkJoinPool pool = new ForkJoinPool(m_threads);
+    try {
+      pool.invoke(new Split(0, m_sources.size()));
+    } finally {
+      pool.shutdown();
+    }
+    System.err.printf("%d of %d files processed\n", total - m_failed.get(), total);
+    return m_failed.get();
+  }
+}
+
+public class batch {
+
+}
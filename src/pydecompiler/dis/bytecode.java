@@ -1,17 +1,12 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import pydecompiler.dis.Pyc.Opcode;
-import pydecompiler.util.FastStack;
-import pydecompiler.util.Logger;
-import pydecompiler.util.Stack;
+import pydecompiler.util.OutputSink;
 
 
 class Pyc {
@@ -62,13 +57,6 @@ class Pyc {
     ;
 
     private int opcode;
-    private static Map<Integer, Opcode> map = new HashMap<Integer, Opcode>();
-
-    static {
-      for (Opcode opcode : Opcode.values()) {
-        map.put(opcode.opcode, opcode);
-      }
-    }
 
     private Opcode() {
     }
@@ -77,8 +65,10 @@ class Pyc {
       this.opcode = opcode;
     }
 
-    public static Opcode get(int opcode) {
-      return map.get(opcode);
+    private static final Opcode[] s_values = values();
+
+    public static Opcode fromOrdinal(int ordinal) {
+      return s_values[ordinal];
     }
   };
 
@@ -86,8 +76,7 @@ class Pyc {
   // public static final Opcode PYC_HAVE_ARG = Opcode.STORE_NAME_A;
 
 
-  public static String OpcodeName(Opcode opcode) {
-    String[] opcode_names = new String[] {
+  private static final String[] opcode_names = {
     "STOP_CODE", "POP_TOP", "ROT_TWO", "ROT_THREE", "DUP_TOP", "DUP_TOP_TWO",
     "UNARY_POSITIVE", "UNARY_NEGATIVE", "UNARY_NOT", "UNARY_CONVERT",
     "UNARY_CALL", "UNARY_INVERT", "BINARY_POWER", "BINARY_MULTIPLY",
@@ -123,8 +112,21 @@ class Pyc {
     "LOAD_CLOSURE", "LOAD_DEREF", "STORE_DEREF", "DELETE_DEREF",
     "EXTENDED_ARG", "SETUP_WITH", "SET_ADD", "MAP_ADD", "UNPACK_EX",
     "LIST_APPEND"
-    };
+  };
+
+  /* Names left-justified to the disassembly column width, built once */
+  private static final String[] s_padded_names = new String[Opcode.values().length];
+
+  static {
+    for (Opcode opcode : Opcode.values()) {
+      StringBuilder name = new StringBuilder(OpcodeName(opcode));
+      while (name.length() < 24)
+        name.append(' ');
+      s_padded_names[opcode.ordinal()] = name.toString();
+    }
+  }
 
+  public static String OpcodeName(Opcode opcode) {
     if (opcode.ordinal() < 0)
       return "<INVALID>";
 
@@ -136,77 +138,326 @@ class Pyc {
     return opcode.name();
   };
 
-  public static Opcode ByteToOpcode(int maj, int min, int opcode) {
+  /* OpcodeName padded to at least 24 columns, as "%-24s" would */
+  public static String PaddedOpcodeName(Opcode opcode) {
+    return s_padded_names[opcode.ordinal()];
+  }
+
+  /* Versions without a map decode every byte as PYC_INVALID_OPCODE */
+  private static final Opcode[] s_invalid_map = new Opcode[256];
+
+  static {
+    Arrays.fill(s_invalid_map, Opcode.PYC_INVALID_OPCODE);
+  }
+
+  /* Returns the 256-entry byte-to-opcode table for a Python version.  The
+   * tables are shared and must not be modified. */
+  public static Opcode[] OpcodeTable(int maj, int min) {
     switch (maj) {
-    // case 1:
-    // switch (min) {
-    // case 0: return python_10_map(opcode);
-    // case 1: return python_11_map(opcode);
-    // case 3: return python_13_map(opcode);
-    // case 4: return python_14_map(opcode);
-    // case 5: return python_15_map(opcode);
-    // case 6: return python_16_map(opcode);
-    // }
-    // break;
+    case 1:
+      switch (min) {
+      case 0: return python_10.python_10_map;
+      // case 1: return python_11_map;
+      // case 3: return python_13_map;
+      // case 4: return python_14_map;
+      // case 5: return python_15_map;
+      // case 6: return python_16_map;
+      }
+      break;
     case 2:
-        switch (min) {
-      // case 0: return python_20_map(opcode);
-      // case 1: return python_21_map(opcode);
-      // case 2: return python_22_map(opcode);
-      // case 3: return python_23_map(opcode);
-      // case 4: return python_24_map(opcode);
-      // case 5: return python_25_map(opcode);
-      // case 6: return python_26_map(opcode);
-        case 7: return python_27.python_27_map(opcode);
-        }
-        break;
+      switch (min) {
+      // case 0: return python_20_map;
+      // case 1: return python_21_map;
+      // case 2: return python_22_map;
+      // case 3: return python_23_map;
+      // case 4: return python_24_map;
+      // case 5: return python_25_map;
+      // case 6: return python_26_map;
+      case 7: return python_27.python_27_map;
+      }
+      break;
 //    case 3:
-//        switch (min) {
-//        case 0: return python_30_map(opcode);
-//        case 1: return python_31_map(opcode);
-//        case 2: return python_32_map(opcode);
-//        case 3: return python_33_map(opcode);
-//        }
-//        break;
+//      switch (min) {
+//      case 0: return python_30_map;
+//      case 1: return python_31_map;
+//      case 2: return python_32_map;
+//      case 3: return python_33_map;
+//      }
+//      break;
+    }
+    return s_invalid_map;
+  }
+
+  public static Opcode ByteToOpcode(int maj, int min, int opcode) {
+    if (opcode < 0 || opcode > 0xFF)
+      return Opcode.PYC_INVALID_OPCODE;
+    return OpcodeTable(maj, min)[opcode];
+  }
+
+  /* Opcode metadata, computed once and indexed by Opcode ordinal */
+  public static final int ARG_CONST = 0x0001;     /* Operand indexes consts */
+  public static final int ARG_NAME = 0x0002;      /* Operand indexes names */
+  public static final int ARG_VARNAME = 0x0004;   /* Operand indexes varnames */
+  public static final int ARG_CELL = 0x0008;      /* Operand indexes cell/free vars */
+  public static final int JUMP_REL = 0x0010;      /* Operand is an offset from the next instruction */
+  public static final int JUMP_ABS = 0x0020;      /* Operand is an absolute position */
+  public static final int JUMP_COND = 0x0040;     /* Branches on the truth of the stack top */
+  public static final int BLOCK_SETUP = 0x0080;   /* Opens a loop/except/finally/with block */
+  public static final int NO_NEXT = 0x0100;       /* Never falls through to the next instruction */
+  public static final int STACK_VAR = 0x0200;     /* Stack effect depends on the operand */
+
+  private static final int[] s_opcode_flags = new int[Opcode.values().length];
+  private static final int[] s_stack_effect = new int[Opcode.values().length];
+
+  private static void info(Opcode opcode, int flags, int stackEffect) {
+    s_opcode_flags[opcode.ordinal()] = flags;
+    s_stack_effect[opcode.ordinal()] = stackEffect;
+  }
+
+  static {
+    info(Opcode.STOP_CODE, NO_NEXT, 0);
+    info(Opcode.POP_TOP, 0, -1);
+    info(Opcode.ROT_TWO, 0, 0);
+    info(Opcode.ROT_THREE, 0, 0);
+    info(Opcode.DUP_TOP, 0, 1);
+    info(Opcode.DUP_TOP_TWO, 0, 2);
+    info(Opcode.UNARY_POSITIVE, 0, 0);
+    info(Opcode.UNARY_NEGATIVE, 0, 0);
+    info(Opcode.UNARY_NOT, 0, 0);
+    info(Opcode.UNARY_CONVERT, 0, 0);
+    info(Opcode.UNARY_CALL, 0, 0);
+    info(Opcode.UNARY_INVERT, 0, 0);
+    info(Opcode.BINARY_POWER, 0, -1);
+    info(Opcode.BINARY_MULTIPLY, 0, -1);
+    info(Opcode.BINARY_DIVIDE, 0, -1);
+    info(Opcode.BINARY_MODULO, 0, -1);
+    info(Opcode.BINARY_ADD, 0, -1);
+    info(Opcode.BINARY_SUBTRACT, 0, -1);
+    info(Opcode.BINARY_SUBSCR, 0, -1);
+    info(Opcode.BINARY_CALL, 0, -1);
+    info(Opcode.SLICE_0, 0, 0);
+    info(Opcode.SLICE_1, 0, -1);
+    info(Opcode.SLICE_2, 0, -1);
+    info(Opcode.SLICE_3, 0, -2);
+    info(Opcode.STORE_SLICE_0, 0, -2);
+    info(Opcode.STORE_SLICE_1, 0, -3);
+    info(Opcode.STORE_SLICE_2, 0, -3);
+    info(Opcode.STORE_SLICE_3, 0, -4);
+    info(Opcode.DELETE_SLICE_0, 0, -1);
+    info(Opcode.DELETE_SLICE_1, 0, -2);
+    info(Opcode.DELETE_SLICE_2, 0, -2);
+    info(Opcode.DELETE_SLICE_3, 0, -3);
+    info(Opcode.STORE_SUBSCR, 0, -3);
+    info(Opcode.DELETE_SUBSCR, 0, -2);
+    info(Opcode.BINARY_LSHIFT, 0, -1);
+    info(Opcode.BINARY_RSHIFT, 0, -1);
+    info(Opcode.BINARY_AND, 0, -1);
+    info(Opcode.BINARY_XOR, 0, -1);
+    info(Opcode.BINARY_OR, 0, -1);
+    info(Opcode.PRINT_EXPR, 0, -1);
+    info(Opcode.PRINT_ITEM, 0, -1);
+    info(Opcode.PRINT_NEWLINE, 0, 0);
+    info(Opcode.BREAK_LOOP, NO_NEXT, 0);
+    info(Opcode.RAISE_EXCEPTION, NO_NEXT, -2);
+    info(Opcode.LOAD_LOCALS, 0, 1);
+    info(Opcode.RETURN_VALUE, NO_NEXT, -1);
+    info(Opcode.LOAD_GLOBALS, 0, 1);
+    info(Opcode.EXEC_STMT, 0, -3);
+    info(Opcode.BUILD_FUNCTION, 0, 0);
+    info(Opcode.POP_BLOCK, 0, 0);
+    info(Opcode.END_FINALLY, 0, -3);
+    info(Opcode.BUILD_CLASS, 0, -2);
+    info(Opcode.ROT_FOUR, 0, 0);
+    info(Opcode.NOP, 0, 0);
+    info(Opcode.LIST_APPEND, 0, -2);
+    info(Opcode.BINARY_FLOOR_DIVIDE, 0, -1);
+    info(Opcode.BINARY_TRUE_DIVIDE, 0, -1);
+    info(Opcode.INPLACE_FLOOR_DIVIDE, 0, -1);
+    info(Opcode.INPLACE_TRUE_DIVIDE, 0, -1);
+    info(Opcode.STORE_MAP, 0, -2);
+    info(Opcode.INPLACE_ADD, 0, -1);
+    info(Opcode.INPLACE_SUBTRACT, 0, -1);
+    info(Opcode.INPLACE_MULTIPLY, 0, -1);
+    info(Opcode.INPLACE_DIVIDE, 0, -1);
+    info(Opcode.INPLACE_MODULO, 0, -1);
+    info(Opcode.INPLACE_POWER, 0, -1);
+    info(Opcode.GET_ITER, 0, 0);
+    info(Opcode.PRINT_ITEM_TO, 0, -2);
+    info(Opcode.PRINT_NEWLINE_TO, 0, -1);
+    info(Opcode.INPLACE_LSHIFT, 0, -1);
+    info(Opcode.INPLACE_RSHIFT, 0, -1);
+    info(Opcode.INPLACE_AND, 0, -1);
+    info(Opcode.INPLACE_XOR, 0, -1);
+    info(Opcode.INPLACE_OR, 0, -1);
+    info(Opcode.WITH_CLEANUP, 0, -1);
+    info(Opcode.IMPORT_STAR, 0, -1);
+    info(Opcode.YIELD_VALUE, 0, 0);
+    info(Opcode.LOAD_BUILD_CLASS, 0, 1);
+    info(Opcode.STORE_LOCALS, 0, -1);
+    info(Opcode.POP_EXCEPT, 0, 0);
+    info(Opcode.SET_ADD, 0, -1);
+    info(Opcode.YIELD_FROM, 0, -1);
+
+    info(Opcode.STORE_NAME_A, ARG_NAME, -1);
+    info(Opcode.DELETE_NAME_A, ARG_NAME, 0);
+    info(Opcode.UNPACK_TUPLE_A, STACK_VAR, 0);
+    info(Opcode.UNPACK_LIST_A, STACK_VAR, 0);
+    info(Opcode.UNPACK_ARG_A, STACK_VAR, 0);
+    info(Opcode.STORE_ATTR_A, ARG_NAME, -2);
+    info(Opcode.DELETE_ATTR_A, ARG_NAME, -1);
+    info(Opcode.STORE_GLOBAL_A, ARG_NAME, -1);
+    info(Opcode.DELETE_GLOBAL_A, ARG_NAME, 0);
+    info(Opcode.UNPACK_VARARG_A, STACK_VAR, 0);
+    info(Opcode.LOAD_CONST_A, ARG_CONST, 1);
+    info(Opcode.LOAD_NAME_A, ARG_NAME, 1);
+    info(Opcode.BUILD_TUPLE_A, STACK_VAR, 0);
+    info(Opcode.BUILD_LIST_A, STACK_VAR, 0);
+    info(Opcode.BUILD_MAP_A, 0, 1);
+    info(Opcode.LOAD_ATTR_A, ARG_NAME, 0);
+    info(Opcode.COMPARE_OP_A, 0, -1);
+    /* Before 2.0 IMPORT_NAME only pushes the module; 2.0 also pops the
+     * fromlist and 2.5 the level.  The first is the bound bc_stack_depth
+     * needs for the pre-1.5 code it walks. */
+    info(Opcode.IMPORT_NAME_A, ARG_NAME, 1);
+    info(Opcode.IMPORT_FROM_A, ARG_NAME, 1);
+    info(Opcode.JUMP_FORWARD_A, JUMP_REL | NO_NEXT, 0);
+    info(Opcode.JUMP_IF_FALSE_A, JUMP_REL | JUMP_COND, 0);
+    info(Opcode.JUMP_IF_TRUE_A, JUMP_REL | JUMP_COND, 0);
+    info(Opcode.JUMP_ABSOLUTE_A, JUMP_ABS | NO_NEXT, 0);
+    info(Opcode.FOR_LOOP_A, JUMP_REL, 1);
+    info(Opcode.LOAD_LOCAL_A, ARG_NAME, 1);
+    info(Opcode.LOAD_GLOBAL_A, ARG_NAME, 1);
+    info(Opcode.SET_FUNC_ARGS_A, 0, -1);
+    info(Opcode.SETUP_LOOP_A, JUMP_REL | BLOCK_SETUP, 0);
+    info(Opcode.SETUP_EXCEPT_A, JUMP_REL | BLOCK_SETUP, 0);
+    info(Opcode.SETUP_FINALLY_A, JUMP_REL | BLOCK_SETUP, 0);
+    info(Opcode.RESERVE_FAST_A, ARG_CONST, 0);
+    info(Opcode.LOAD_FAST_A, ARG_VARNAME, 1);
+    info(Opcode.STORE_FAST_A, ARG_VARNAME, -1);
+    info(Opcode.DELETE_FAST_A, ARG_VARNAME, 0);
+    info(Opcode.SET_LINENO_A, 0, 0);
+    info(Opcode.RAISE_VARARGS_A, NO_NEXT | STACK_VAR, 0);
+    info(Opcode.CALL_FUNCTION_A, STACK_VAR, 0);
+    info(Opcode.MAKE_FUNCTION_A, STACK_VAR, 0);
+    info(Opcode.BUILD_SLICE_A, STACK_VAR, 0);
+    info(Opcode.CALL_FUNCTION_VAR_A, STACK_VAR, 0);
+    info(Opcode.CALL_FUNCTION_KW_A, STACK_VAR, 0);
+    info(Opcode.CALL_FUNCTION_VAR_KW_A, STACK_VAR, 0);
+    info(Opcode.UNPACK_SEQUENCE_A, STACK_VAR, 0);
+    info(Opcode.FOR_ITER_A, JUMP_REL, 1);
+    info(Opcode.DUP_TOPX_A, STACK_VAR, 0);
+    info(Opcode.BUILD_SET_A, STACK_VAR, 0);
+    info(Opcode.JUMP_IF_FALSE_OR_POP_A, JUMP_ABS | JUMP_COND, -1);
+    info(Opcode.JUMP_IF_TRUE_OR_POP_A, JUMP_ABS | JUMP_COND, -1);
+    info(Opcode.POP_JUMP_IF_FALSE_A, JUMP_ABS | JUMP_COND, -1);
+    info(Opcode.POP_JUMP_IF_TRUE_A, JUMP_ABS | JUMP_COND, -1);
+    info(Opcode.CONTINUE_LOOP_A, JUMP_ABS | NO_NEXT, 0);
+    info(Opcode.MAKE_CLOSURE_A, STACK_VAR, 0);
+    info(Opcode.LOAD_CLOSURE_A, ARG_CELL, 1);
+    info(Opcode.LOAD_DEREF_A, ARG_CELL, 1);
+    info(Opcode.STORE_DEREF_A, ARG_CELL, -1);
+    info(Opcode.DELETE_DEREF_A, ARG_CELL, 0);
+    info(Opcode.EXTENDED_ARG_A, 0, 0);
+    info(Opcode.SETUP_WITH_A, JUMP_REL | BLOCK_SETUP, 1);
+    info(Opcode.SET_ADD_A, 0, -1);
+    info(Opcode.MAP_ADD_A, 0, -2);
+    info(Opcode.UNPACK_EX_A, STACK_VAR, 0);
+    info(Opcode.LIST_APPEND_A, 0, -1);
+  }
+
+  public static int OpcodeFlags(Opcode opcode) {
+    return s_opcode_flags[opcode.ordinal()];
+  }
+
+  /* Net stack effect of an instruction when it falls through */
+  public static int StackEffect(Opcode opcode, int operand) {
+    if ((s_opcode_flags[opcode.ordinal()] & STACK_VAR) == 0)
+      return s_stack_effect[opcode.ordinal()];
+
+    int nargs = (operand & 0xFF) + 2 * ((operand >> 8) & 0xFF);
+    switch (opcode) {
+    case UNPACK_TUPLE_A:
+    case UNPACK_LIST_A:
+    case UNPACK_SEQUENCE_A:
+    case UNPACK_ARG_A:
+      return operand - 1;
+    case UNPACK_VARARG_A:
+      return operand; // The named arguments and the tuple of the rest
+    case UNPACK_EX_A:
+      return (operand & 0xFF) + (operand >> 8);
+    case BUILD_TUPLE_A:
+    case BUILD_LIST_A:
+    case BUILD_SET_A:
+      return 1 - operand;
+    case RAISE_VARARGS_A:
+    case MAKE_FUNCTION_A:
+      return -operand;
+    case MAKE_CLOSURE_A:
+      return -operand - 1;
+    case BUILD_SLICE_A:
+      return (operand == 3) ? -2 : -1;
+    case DUP_TOPX_A:
+      return operand;
+    case CALL_FUNCTION_A:
+      return -nargs;
+    case CALL_FUNCTION_VAR_A:
+    case CALL_FUNCTION_KW_A:
+      return -nargs - 1;
+    case CALL_FUNCTION_VAR_KW_A:
+      return -nargs - 2;
+    default:
+      return 0;
+    }
+  }
+
+  /* Stack depth change on the jump edge of a branch, relative to the depth
+   * before the instruction */
+  public static int JumpStackEffect(Opcode opcode, int operand) {
+    switch (opcode) {
+    case SETUP_EXCEPT_A:
+    case SETUP_FINALLY_A:
+      return 3; // The exception triple
+    case SETUP_WITH_A:
+      return 4;
+    case FOR_ITER_A:
+      return -1;
+    case FOR_LOOP_A:
+      return -2;
+    case JUMP_IF_FALSE_OR_POP_A:
+    case JUMP_IF_TRUE_OR_POP_A:
+      return 0;
+    default:
+      return StackEffect(opcode, operand);
     }
-    return Opcode.PYC_INVALID_OPCODE;
   }
 
   public static boolean IsConstArg(Opcode opcode) {
-    return (opcode == Opcode.LOAD_CONST_A) || (opcode == Opcode.RESERVE_FAST_A);
+    return (s_opcode_flags[opcode.ordinal()] & ARG_CONST) != 0;
   }
 
   public static boolean IsNameArg(Opcode opcode) {
-    return (opcode == Opcode.DELETE_ATTR_A) || (opcode == Opcode.DELETE_GLOBAL_A) ||
-           (opcode == Opcode.DELETE_NAME_A) || (opcode == Opcode.IMPORT_FROM_A) ||
-           (opcode == Opcode.IMPORT_NAME_A) || (opcode == Opcode.LOAD_ATTR_A) ||
-           (opcode == Opcode.LOAD_GLOBAL_A) || (opcode == Opcode.LOAD_LOCAL_A) ||
-           (opcode == Opcode.LOAD_NAME_A)   || (opcode == Opcode.STORE_ATTR_A) ||
-           (opcode == Opcode.STORE_GLOBAL_A) || (opcode == Opcode.STORE_NAME_A);
+    return (s_opcode_flags[opcode.ordinal()] & ARG_NAME) != 0;
   }
 
   public static boolean IsVarNameArg(Opcode opcode) {
-    return (opcode == Opcode.DELETE_FAST_A) || (opcode == Opcode.LOAD_FAST_A) ||
-           (opcode == Opcode.STORE_FAST_A);
+    return (s_opcode_flags[opcode.ordinal()] & ARG_VARNAME) != 0;
   }
 
   public static boolean IsCellArg(Opcode opcode) {
-    return (opcode == Opcode.LOAD_CLOSURE_A) || (opcode == Opcode.LOAD_DEREF_A) ||
-           (opcode == Opcode.STORE_DEREF_A);
+    return (s_opcode_flags[opcode.ordinal()] & ARG_CELL) != 0;
   }
 
   public static boolean IsJumpOffsetArg(Opcode opcode) {
-    return (opcode == Opcode.JUMP_FORWARD_A) || (opcode == Opcode.JUMP_IF_FALSE_A) ||
-           (opcode == Opcode.JUMP_IF_TRUE_A) || (opcode == Opcode.SETUP_LOOP_A) ||
-           (opcode == Opcode.SETUP_FINALLY_A) || (opcode == Opcode.SETUP_EXCEPT_A) ||
-           (opcode == Opcode.FOR_LOOP_A);
+    return (s_opcode_flags[opcode.ordinal()] & JUMP_REL) != 0;
+  }
+
+  public static boolean IsCondJump(Opcode opcode) {
+    return (s_opcode_flags[opcode.ordinal()] & JUMP_COND) != 0;
   }
 }
 
 
 public class bytecode {
-  static PrintStream pyc_output = PycData.pyc_output;
-
   static String double2string(double d) {
     StringBuilder s = new StringBuilder().append(d);
     if (s.indexOf(".") >= 0) {
@@ -218,213 +469,327 @@ public class bytecode {
     return s.toString();
   }
 
-  static void print_const(PycObject obj, PycModule mod) {
+  static void print_const(PycObject obj, PycModule mod, OutputSink out) {
     switch (obj.type()) {
     case PycObject.Type.TYPE_STRING:
     case PycObject.Type.TYPE_STRINGREF:
     case PycObject.Type.TYPE_INTERNED:
-      PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0);
+      PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0, false, out);
       break;
     case PycObject.Type.TYPE_UNICODE:
-      PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u');
+      PycString.OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u', false, out);
       break;
     case PycObject.Type.TYPE_TUPLE: {
-      pyc_output.printf("(");
+      out.append('(');
       List<PycObject> values = ((PycTuple) obj).values();
       Iterator<PycObject> it = values.iterator();
       if (it.hasNext()) {
-        print_const(it.next(), mod);
+        print_const(it.next(), mod, out);
         while (it.hasNext()) {
-          pyc_output.printf(", ");
-          print_const(it.next(), mod);
+          out.append(", ");
+          print_const(it.next(), mod, out);
         }
       }
       if (values.size() == 1)
-        pyc_output.printf(",)");
+        out.append(",)");
       else
-        pyc_output.printf(")");
+        out.append(')');
     }
       break;
     case PycObject.Type.TYPE_LIST: {
-      pyc_output.printf("[");
+      out.append('[');
       List<PycObject> values = ((PycList) obj).values();
       Iterator<PycObject> it = values.iterator();
       if (it.hasNext()) {
-        print_const(it.next(), mod);
+        print_const(it.next(), mod, out);
         while (it.hasNext()) {
-          pyc_output.printf(", ");
-          print_const(it.next(), mod);
+          out.append(", ");
+          print_const(it.next(), mod, out);
         }
       }
-      pyc_output.printf("]");
+      out.append(']');
     }
       break;
     case PycObject.Type.TYPE_DICT: {
-      pyc_output.printf("{");
+      out.append('{');
       List<PycObject> keys = ((PycDict) obj).keys();
       List<PycObject> values = ((PycDict) obj).values();
       Iterator<PycObject> ki = keys.iterator();
       Iterator<PycObject> vi = values.iterator();
       if (ki.hasNext()) {
-        print_const(ki.next(), mod);
-        pyc_output.printf(": ");
-        print_const(vi.next(), mod);
+        print_const(ki.next(), mod, out);
+        out.append(": ");
+        print_const(vi.next(), mod, out);
         while (ki.hasNext()) {
-          pyc_output.printf(", ");
-          print_const(ki.next(), mod);
-          pyc_output.printf(": ");
-          print_const(vi.next(), mod);
+          out.append(", ");
+          print_const(ki.next(), mod, out);
+          out.append(": ");
+          print_const(vi.next(), mod, out);
         }
       }
-      pyc_output.printf("}");
+      out.append('}');
     }
       break;
     case PycObject.Type.TYPE_SET: {
-      pyc_output.printf("{");
-      Set<PycObject> values = ((PycSet) obj).values();
+      out.append('{');
+      List<PycObject> values = ((PycSet) obj).values();
       Iterator<PycObject> it = values.iterator();
       if (it.hasNext()) {
-        print_const(it.next(), mod);
+        print_const(it.next(), mod, out);
         while (it.hasNext()) {
-          pyc_output.printf(", ");
-          print_const(it.next(), mod);
+          out.append(", ");
+          print_const(it.next(), mod, out);
         }
       }
-      pyc_output.printf("}");
+      out.append('}');
     }
       break;
     case PycObject.Type.TYPE_NONE:
-      pyc_output.printf("None");
+      out.append("None");
       break;
     case PycObject.Type.TYPE_TRUE:
-      pyc_output.printf("True");
+      out.append("True");
       break;
     case PycObject.Type.TYPE_FALSE:
-      pyc_output.printf("False");
+      out.append("False");
       break;
     case PycObject.Type.TYPE_INT:
-      pyc_output.printf("%d", ((PycInt) obj).value());
+      out.append(((PycInt) obj).value());
       break;
     case PycObject.Type.TYPE_LONG:
-      pyc_output.printf("%s", ((PycLong) obj).repr());
+      out.append(((PycLong) obj).repr());
       break;
     case PycObject.Type.TYPE_FLOAT:
-      pyc_output.printf("%s", ((PycFloat) obj).value());
+      out.append(((PycFloat) obj).value());
       break;
     case PycObject.Type.TYPE_COMPLEX:
-      pyc_output.printf("(%s+%sj)", ((PycComplex) obj).value(), ((PycComplex) obj).imag());
+      out.append('(').append(((PycComplex) obj).value()).append('+').append(((PycComplex) obj).imag()).append("j)");
       break;
     case PycObject.Type.TYPE_BINARY_FLOAT:
-      pyc_output.printf("%s", double2string(((PycCFloat) obj).value()));
+      out.append(double2string(((PycCFloat) obj).value()));
       break;
     case PycObject.Type.TYPE_BINARY_COMPLEX:
-      pyc_output.printf("(%g+%gj)", ((PycCComplex) obj).value(), ((PycCComplex) obj).imag());
+      out.append(String.format("(%g+%gj)", ((PycCComplex) obj).value(), ((PycCComplex) obj).imag()));
       break;
     case PycObject.Type.TYPE_CODE:
     case PycObject.Type.TYPE_CODE2:
-      pyc_output.printf("<CODE> %s", ((PycCode) obj).name().value());
+      out.append("<CODE> ").append(((PycCode) obj).name().value());
       break;
     }
   }
 
-  static void bc_print(PycCode code, PycModule mod, Opcode opcode, int pos, int operand, FastStack stack, Stack stack_hist) {
-    pyc_output.printf("%-24s", Pyc.OpcodeName(opcode));
+  static void bc_print(PycCode code, PycModule mod, Opcode opcode, int pos, int operand, OutputSink out) {
+    out.append(Pyc.PaddedOpcodeName(opcode));
 
     if (opcode.ordinal() >= Opcode.PYC_HAVE_ARG.ordinal()) {
-      String operand_ = Integer.toString(operand);
-
+      out.append(operand);
       if (Pyc.IsConstArg(opcode)) {
-        pyc_output.printf("%d: ", operand);
-        print_const(code.getConst(operand), mod);
+        out.append(": ");
+        print_const(code.getConst(operand), mod, out);
       } else if (Pyc.IsNameArg(opcode)) {
-        pyc_output.printf("%d: %s", operand, code.getName(operand).value());
+        out.append(": ").append(code.getName(operand).value());
       } else if (Pyc.IsVarNameArg(opcode)) {
-        pyc_output.printf("%d: %s", operand, code.getVarName(operand).value());
+        out.append(": ").append(code.getVarName(operand).value());
       } else if (Pyc.IsCellArg(opcode)) {
-        pyc_output.printf("%d: ", operand);
-        print_const(code.getCellVar(operand), mod);
+        out.append(": ");
+        print_const(code.getCellVar(operand), mod, out);
       } else if (Pyc.IsJumpOffsetArg(opcode)) {
-        pyc_output.printf("%d (to %d)", operand, pos + operand);
-      } else {
-        pyc_output.printf(operand_);
+        out.append(" (to ").append(pos + operand).append(')');
       }
     }
-    pyc_output.printf("\n");
-
-    Logger.log("        stack peek", stack.size() > 0 ? stack.peek() : " 000 ",  "stack size: ", stack.size(), ", stack_hist size: ", stack_hist.size());
+    out.append('\n');
   }
 
+  /* Decoded instructions are stored as INSN_WIDTH ints each: the position
+   * of the instruction, the opcode ordinal and the operand, with any
+   * EXTENDED_ARG prefix already folded into the operand.  A trailing entry
+   * holds the end of the code as its position, so the position following
+   * the instruction at index i is always insns[i + INSN_WIDTH + INSN_POS]. */
+  static final int INSN_POS = 0;
+  static final int INSN_OP = 1;
+  static final int INSN_ARG = 2;
+  static final int INSN_WIDTH = 3;
+
+  static int[] bc_decode(PycCode code, PycModule mod) {
+    byte[] source = code.code().bytes();
+    int size = code.code().length();
+    int[] insns = new int[(size + 1) * INSN_WIDTH];
+    int count = 0;
+    int pos = 0;
+
+    Opcode[] map = mod.opcodes();
+
+    while (pos < size) {
+      int curpos = pos;
+      Opcode opcode = map[source[pos] & 0xFF];
+      int operand = 0;
+      boolean haveExtArg = false;
+      pos += 1;
 
-  static Args bc_next(PycBuffer source, PycCode code, PycModule mod, Opcode opcode, int operand, int pos, boolean is_disasm, FastStack stack, Stack stack_hist) throws IOException {
-    if (is_disasm)
-      pyc_output.printf("%-7d ", pos); // Current bytecode position
+      if (opcode == Opcode.EXTENDED_ARG_A) {
+        operand = read16(source, pos, size) << 16;
+        opcode = map[pos + 2 < size ? source[pos + 2] & 0xFF : 0];
+        haveExtArg = true;
+        pos += 3;
+      }
 
-    opcode = Pyc.ByteToOpcode(mod.majorVer(), mod.minorVer(), source.getByte());
-    operand = 0;
-    boolean haveExtArg = false;
-    pos += 1;
+      if (opcode.ordinal() >= Opcode.PYC_HAVE_ARG.ordinal()) {
+        // If we have an extended arg, we want to OR the lower part,
+        // else we want the whole thing (in case it's negative). We use
+        // the boolean so that values between 0x8000 and 0xFFFF can be stored
+        // without becoming negative
+        if (haveExtArg)
+          operand |= read16(source, pos, size);
+        else
+          operand = read16(source, pos, size);
+        pos += 2;
+      }
 
-    if (opcode == Opcode.EXTENDED_ARG_A) {
-      operand = source.get16() << 16;
-      opcode = Opcode.get(source.getByte());
-      haveExtArg = true;
-      pos += 3;
+      insns[count + INSN_POS] = curpos;
+      insns[count + INSN_OP] = opcode.ordinal();
+      insns[count + INSN_ARG] = operand;
+      count += INSN_WIDTH;
     }
 
-    if (opcode.ordinal() >= Opcode.PYC_HAVE_ARG.ordinal()) {
-      // If we have an extended arg, we want to OR the lower part,
-      // else we want the whole thing (in case it's negative). We use
-      // the boolean so that values between 0x8000 and 0xFFFF can be stored
-      // without becoming negative
-      if (haveExtArg)
-        operand |= (source.get16() & 0xFFFF);
-      else
-        operand = source.get16();
-      pos += 2;
+    insns[count + INSN_POS] = pos;
+    insns[count + INSN_OP] = Opcode.PYC_INVALID_OPCODE.ordinal();
+    insns[count + INSN_ARG] = 0;
+    count += INSN_WIDTH;
+    return Arrays.copyOf(insns, count);
+  }
+
+  private static int read16(byte[] source, int pos, int size) {
+    int result = (pos < size) ? source[pos] & 0xFF : 0;
+    if (pos + 1 < size)
+      result |= (source[pos + 1] & 0xFF) << 8;
+    return result;
+  }
+
+  /* Static estimate of the maximum evaluation stack depth, for code objects
+   * that predate co_stacksize.  Walks every reachable path once per distinct
+   * entry depth, using the stack effects from the opcode metadata.
+   *
+   * In well-formed code each instruction has one depth, so no path can go
+   * deeper than the sum of all the pushes.  A loop that grows the stack
+   * (corrupt input, or an opcode the table gets wrong) would raise depths
+   * forever, so the walk stops at that bound and returns it; the result is
+   * only a capacity hint. */
+  static int bc_stack_depth(PycCode code, PycModule mod) {
+    int[] insns = code.instructions(mod);
+    int count = insns.length / INSN_WIDTH - 1;
+    int end = insns[count * INSN_WIDTH + INSN_POS];
+
+    int[] index = new int[end + 1];
+    Arrays.fill(index, -1);
+    int limit = 0;
+    for (int i = 0; i <= count; i++) {
+      int at = i * INSN_WIDTH;
+      index[insns[at + INSN_POS]] = i;
+      if (i < count) {
+        Opcode opcode = Opcode.fromOrdinal(insns[at + INSN_OP]);
+        int operand = insns[at + INSN_ARG];
+        limit += Math.max(Math.max(Pyc.StackEffect(opcode, operand), Pyc.JumpStackEffect(opcode, operand)), 0);
+      }
     }
 
-    if (is_disasm) {
-      if (is_disasm)
-        bc_print(code, mod, opcode, pos, operand, stack, stack_hist);
-      else
-        Logger.log("        stack size: ", stack.size(), ", stack_hist size: ", stack_hist.size());
+    int[] depth = new int[count + 1];
+    Arrays.fill(depth, -1);
+    /* Each index is queued at most once, so the worklist never overflows;
+     * a raised depth on a queued index is picked up when it is popped */
+    int[] work = new int[count + 1];
+    boolean[] queued = new boolean[count + 1];
+    int pending = 0;
+    int maxDepth = 0;
+
+    depth[0] = 0;
+    work[pending++] = 0;
+    queued[0] = true;
+    while (pending > 0) {
+      int i = work[--pending];
+      queued[i] = false;
+      int d = depth[i];
+      for (; i < count; i++) {
+        int at = i * INSN_WIDTH;
+        Opcode opcode = Opcode.fromOrdinal(insns[at + INSN_OP]);
+        int operand = insns[at + INSN_ARG];
+        int flags = Pyc.OpcodeFlags(opcode);
+
+        if ((flags & (Pyc.JUMP_REL | Pyc.JUMP_ABS)) != 0) {
+          int target = operand;
+          if ((flags & Pyc.JUMP_REL) != 0)
+            target += insns[at + INSN_WIDTH + INSN_POS];
+          int t = (target >= 0 && target <= end) ? index[target] : -1;
+          int td = Math.max(d + Pyc.JumpStackEffect(opcode, operand), 0);
+          if (td > limit)
+            return limit;
+          maxDepth = Math.max(maxDepth, td);
+          if (t >= 0 && depth[t] < td) {
+            depth[t] = td;
+            if (!queued[t]) {
+              queued[t] = true;
+              work[pending++] = t;
+            }
+          }
+        }
+
+        if ((flags & Pyc.NO_NEXT) != 0)
+          break;
+
+        d = Math.max(d + Pyc.StackEffect(opcode, operand), 0);
+        if (d > limit)
+          return limit;
+        maxDepth = Math.max(maxDepth, d);
+        if (depth[i + 1] >= d)
+          break;
+        depth[i + 1] = d;
+      }
     }
-    return new Args(source, code, mod, opcode, operand, pos);
+    return maxDepth;
   }
 
-  static void bc_disasm(PycCode code, PycModule mod, int indent)
-      throws IOException {
-    PycBuffer source = new PycBuffer(code.code().value().getBytes(), code
-        .code().length());
+  /* Indentation prefixes for the common nesting depths */
+  private static final String[] s_indents = new String[16];
 
-    Opcode opcode = null;
-    int operand = 0;
-    int pos = 0;
-    while (!source.atEof()) {
-      for (int i = 0; i < indent; i++)
-        pyc_output.printf("    ");
+  static {
+    s_indents[0] = "";
+    for (int i = 1; i < s_indents.length; i++)
+      s_indents[i] = s_indents[i - 1] + "    ";
+  }
 
-      Args args = bc_next(source, code, mod, opcode, operand, pos, true, new FastStack(), new Stack());
-      pos = args.pos;
-    }
+  static OutputSink bc_indent(OutputSink out, int indent) {
+    for (; indent >= s_indents.length; indent -= s_indents.length - 1)
+      out.append(s_indents[s_indents.length - 1]);
+    return out.append(s_indents[indent]);
   }
 
-}
+  /* Appends value left-justified in width columns, as "%-{width}d" would */
+  static OutputSink bc_pad(OutputSink out, int value, int width) {
+    out.append(value);
+    int digits = (value < 0) ? 2 : 1;
+    for (int v = value / 10; v != 0; v /= 10)
+      digits++;
+    for (; digits < width; digits++)
+      out.append(' ');
+    return out;
+  }
 
-class Args {
-  PycBuffer source;
-  PycCode code;
-  PycModule mod;
-  Opcode opcode;
-  int operand;
-  int pos;
-
-  Args (PycBuffer source, PycCode code, PycModule mod, Opcode opcode, int operand, int pos) {
-    this.source = source;
-    this.code = code;
-    this.mod = mod;
-    this.opcode = opcode;
-    this.operand = operand;
-    this.pos = pos;
+  /* Appends the low 4 * digits bits of value as upper-case hex, zero filled */
+  static OutputSink bc_hex(OutputSink out, long value, int digits) {
+    for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+      out.append(Character.toUpperCase(Character.forDigit((int) (value >>> shift) & 0xF, 16)));
+    return out;
   }
-}
\ No newline at end of file
+
+  static void bc_disasm(PycCode code, PycModule mod, int indent, OutputSink out)
+      throws IOException {
+    int[] insns = code.instructions(mod);
+
+    for (int i = 0; i + INSN_WIDTH < insns.length; i += INSN_WIDTH) {
+      bc_indent(out, indent);
+      bc_pad(out, insns[i + INSN_POS], 7).append(' '); // Current bytecode position
+      bc_print(code, mod, Opcode.fromOrdinal(insns[i + INSN_OP]), insns[i + INSN_WIDTH + INSN_POS],
+          insns[i + INSN_ARG], out);
+    }
+  }
+
+}
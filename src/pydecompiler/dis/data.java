@@ -3,7 +3,13 @@ package pydecompiler.dis;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 interface PycDataI {
   boolean isOpen() throws IOException;
@@ -16,7 +22,8 @@ interface PycDataI {
 }
 
 abstract class PycData implements PycDataI {
-  public static PrintStream pyc_output = new PrintStream(System.out);
+  /* The readers below assemble little-endian values from getByte(); the
+   * buffer-backed sources override them with direct bulk reads. */
 
   int get16() throws IOException {
     /* Ensure endianness */
@@ -37,28 +44,32 @@ abstract class PycData implements PycDataI {
   // Pyc_INT64 get64()
   long get64() throws IOException {
     /* Ensure endianness */
-    long result = getByte() & 0xFF;
-    result |= (getByte() & 0xFF) << 8;
-    result |= (getByte() & 0xFF) << 16;
-    result |= (getByte() & 0xFF) << 24;
-    result |= (getByte() & 0xFF) << 32;
-    result |= (getByte() & 0xFF) << 40;
-    result |= (getByte() & 0xFF) << 48;
-    result |= (getByte() & 0xFF) << 56;
+    long result = get32() & 0xFFFFFFFFL;
+    result |= ((long) get32()) << 32;
     return result;
   }
 
-  byte[] get64a() throws IOException {
-    byte[] ba = new byte[8];
-    for (int i = 0; i < ba.length; i++)
-      ba[i] = (byte) getByte();
+  double getDouble() throws IOException {
+    return Double.longBitsToDouble(get64());
+  }
 
-    return ba;
+  void skip(int bytes) throws IOException {
+    seek(position() + bytes);
   }
+
+  /* Random access, so earlier data can be revisited (used by lazily loaded
+   * code objects and by SkipObject's lookahead) */
+  abstract int position() throws IOException;
+
+  abstract void seek(int pos) throws IOException;
+
+  /* A second cursor over the same data, starting at the same position */
+  abstract PycData duplicate() throws IOException;
 };
 
 class PycFile extends PycData {
-  private InputStream m_stream;
+  private final String m_filename;
+  private FileInputStream m_stream;
 
   public void _PycFile() throws IOException {
     if (m_stream != null)
@@ -70,6 +81,7 @@ class PycFile extends PycData {
   }
 
   PycFile(String filename) throws IOException {
+    m_filename = filename;
     m_stream = new FileInputStream(filename);
   }
 
@@ -79,8 +91,8 @@ class PycFile extends PycData {
   }
 
   public int getByte() throws IOException {
-    int ch = (byte) m_stream.read();
-    return ch;
+    /* 0-255, or -1 at end of file like the other sources */
+    return m_stream.read();
   }
 
   public int getBuffer(int bytes, byte[] buffer) throws IOException {
@@ -88,9 +100,109 @@ class PycFile extends PycData {
 
     return (int) m_stream.read(buffer, 0, bytes); // /?????
   }
+
+  /* The stream is unbuffered, so its channel position is the read position */
+  int position() throws IOException {
+    return (int) m_stream.getChannel().position();
+  }
+
+  void seek(int pos) throws IOException {
+    m_stream.getChannel().position(pos);
+  }
+
+  /* Opens the file again; the copy's stream is closed when it is collected */
+  PycData duplicate() throws IOException {
+    PycFile copy = new PycFile(m_filename);
+    copy.seek(position());
+    return copy;
+  }
+};
+
+/* Read-only view of a whole file mapped into memory.  The marshal format is
+ * little-endian, so the multi-byte readers go straight to the buffer instead
+ * of assembling values from getByte(). */
+class PycMappedFile extends PycData {
+  private MappedByteBuffer m_buffer;
+
+  private PycMappedFile(MappedByteBuffer buffer) {
+    m_buffer = buffer;
+    m_buffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  PycMappedFile(String filename) throws IOException {
+    FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+    try {
+      m_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      m_buffer.order(ByteOrder.LITTLE_ENDIAN);
+    } finally {
+      // The mapping stays valid after the channel is closed
+      channel.close();
+    }
+  }
+
+  public boolean isOpen() {
+    return (m_buffer != null);
+  }
+
+  public boolean atEof() {
+    return !m_buffer.hasRemaining();
+  }
+
+  public int getByte() {
+    if (atEof())
+      return -1;
+    return (m_buffer.get() & 0xFF);
+  }
+
+  public int getBuffer(int bytes, byte[] buffer) {
+    if (bytes > m_buffer.remaining())
+      bytes = m_buffer.remaining();
+    m_buffer.get(buffer, 0, bytes);
+    return bytes;
+  }
+
+  int get16() throws IOException {
+    if (m_buffer.remaining() < 2)
+      return super.get16();
+    return m_buffer.getShort() & 0xFFFF;
+  }
+
+  int get32() throws IOException {
+    if (m_buffer.remaining() < 4)
+      return super.get32();
+    return m_buffer.getInt();
+  }
+
+  long get64() throws IOException {
+    if (m_buffer.remaining() < 8)
+      return super.get64();
+    return m_buffer.getLong();
+  }
+
+  double getDouble() throws IOException {
+    if (m_buffer.remaining() < 8)
+      return super.getDouble();
+    return m_buffer.getDouble();
+  }
+
+  int position() {
+    return m_buffer.position();
+  }
+
+  void seek(int pos) {
+    m_buffer.position(Math.min(pos, m_buffer.limit()));
+  }
+
+  PycData duplicate() {
+    return new PycMappedFile(m_buffer.duplicate());
+  }
 };
 
 class PycBuffer extends PycData {
+  private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final VarHandle DOUBLE_LE = MethodHandles.byteArrayViewVarHandle(double[].class, ByteOrder.LITTLE_ENDIAN);
 
   public PycBuffer(byte[] buffer, int size) {
     this.m_buffer = buffer;
@@ -107,9 +219,6 @@ class PycBuffer extends PycData {
 
   public static int EOF = -1;
 
-  // public int getByte();
-  // public int getBuffer(int bytes, void* buffer);
-
   public int getByte() {
     if (atEof())
       return -1;
@@ -121,10 +230,57 @@ class PycBuffer extends PycData {
   public int getBuffer(int bytes, byte[] buffer) {
     if (m_pos + bytes > m_size)
       bytes = m_size - m_pos;
-    // System.arraycopy(buffer, (m_buffer + m_pos), bytes); ??????????
+    System.arraycopy(m_buffer, m_pos, buffer, 0, bytes);
+    m_pos += bytes;
     return bytes;
   }
 
+  int get16() throws IOException {
+    if (m_pos + 2 > m_size)
+      return super.get16();
+    int result = (short) SHORT_LE.get(m_buffer, m_pos) & 0xFFFF;
+    m_pos += 2;
+    return result;
+  }
+
+  int get32() throws IOException {
+    if (m_pos + 4 > m_size)
+      return super.get32();
+    int result = (int) INT_LE.get(m_buffer, m_pos);
+    m_pos += 4;
+    return result;
+  }
+
+  long get64() throws IOException {
+    if (m_pos + 8 > m_size)
+      return super.get64();
+    long result = (long) LONG_LE.get(m_buffer, m_pos);
+    m_pos += 8;
+    return result;
+  }
+
+  double getDouble() throws IOException {
+    if (m_pos + 8 > m_size)
+      return super.getDouble();
+    double result = (double) DOUBLE_LE.get(m_buffer, m_pos);
+    m_pos += 8;
+    return result;
+  }
+
+  int position() {
+    return m_pos;
+  }
+
+  void seek(int pos) {
+    m_pos = Math.min(pos, m_size);
+  }
+
+  PycData duplicate() {
+    PycBuffer copy = new PycBuffer(m_buffer, m_size);
+    copy.m_pos = m_pos;
+    return copy;
+  }
+
   private byte[] m_buffer;
   private int m_size, m_pos;
 };
@@ -1,6 +1,7 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -30,6 +31,7 @@ class PycCode extends PycObject {
 
   PycCode(int type) {
     super(type);
+    m_globalsUsed = new HashSet<PycObject>();
   }
 
   int argCount() {
@@ -53,59 +55,79 @@ class PycCode extends PycObject {
   }
 
   PycString code() {
+    ensureLoaded();
     return m_code;
   }
 
   PycSequence consts() {
+    ensureLoaded();
     return m_consts;
   }
 
   PycSequence names() {
+    ensureLoaded();
     return m_names;
   }
 
   PycSequence varNames() {
+    ensureLoaded();
     return m_varNames;
   }
 
   PycSequence freeVars() {
+    ensureLoaded();
     return m_freeVars;
   }
 
   PycSequence cellVars() {
+    ensureLoaded();
     return m_cellVars;
   }
 
   PycString fileName() {
+    ensureLoaded();
     return m_fileName;
   }
 
   PycString name() {
+    ensureLoaded();
     return m_name;
   }
 
   int firstLine() {
+    ensureLoaded();
     return m_firstLine;
   }
 
   PycString lnTable() {
+    ensureLoaded();
     return m_lnTable;
   }
 
   PycObject getConst(int idx) {
-    return m_consts.get(idx);
+    return consts().get(idx);
   }
 
   PycString getName(int idx) {
-    return (PycString) m_names.get(idx);
+    return (PycString) names().get(idx);
   }
 
   PycString getVarName(int idx) {
-    return (PycString) m_varNames.get(idx);
+    return (PycString) varNames().get(idx);
   }
 
   PycObject getCellVar(int idx) {
-    return (idx >= m_cellVars.size()) ? m_freeVars.get(idx - m_cellVars.size()) : m_cellVars.get(idx);
+    PycSequence cellVars = cellVars();
+    return (idx >= cellVars.size()) ? m_freeVars.get(idx - cellVars.size()) : cellVars.get(idx);
+  }
+
+  /* Decoded once on first use and shared by the disassembler and the
+   * decompiler; see bytecode.bc_decode() for the layout. */
+  int[] instructions(PycModule mod) {
+    int[] insns = m_insns;
+    if (insns == null)
+      m_insns = insns = bytecode.bc_decode(this, mod);
+    return insns;
   }
 
   Set<PycObject> getGlobals() {
@@ -117,7 +139,8 @@ class PycCode extends PycObject {
     // m_globalsUsed.unique();
   }
 
-  void load(PycData stream, PycModule mod) throws IOException {
+  /* The fixed-size fields in front of the code string */
+  void loadHeader(PycData stream, PycModule mod) throws IOException {
     if (mod.verCompare(1, 3) >= 0 && mod.verCompare(2, 3) < 0)
       m_argCount = stream.get16();
     else if (mod.verCompare(2, 3) >= 0)
@@ -140,7 +163,20 @@ class PycCode extends PycObject {
       m_flags = stream.get16();
     else if (mod.verCompare(2, 3) >= 0)
       m_flags = stream.get32();
+  }
 
+  void load(PycData stream, PycModule mod) throws IOException {
+    loadHeader(stream, mod);
+
+    mod.m_codeDepth++;
+    try {
+      loadBody(stream, mod);
+    } finally {
+      mod.m_codeDepth--;
+    }
+  }
+
+  private void loadBody(PycData stream, PycModule mod) throws IOException {
     m_code = (PycString) LoadObject(stream, mod);
     m_consts = (PycTuple) LoadObject(stream, mod);
     m_names = (PycTuple) LoadObject(stream, mod);
@@ -166,6 +202,121 @@ class PycCode extends PycObject {
       m_lnTable = (PycString) LoadObject(stream, mod);
   }
 
+  /* Number of objects between the header and co_firstlineno */
+  private static int BodyObjects(PycModule mod) {
+    int count = 5; // code, consts, names, filename, name
+    if (mod.verCompare(1, 3) >= 0)
+      count += 1; // varnames
+    if (mod.verCompare(2, 1) >= 0)
+      count += 2; // freevars, cellvars
+    return count;
+  }
+
+  /* Steps over a code object's body; see PycObject.SkipObject */
+  private static boolean SkipBody(PycData stream, PycModule mod) throws IOException {
+    for (int i = BodyObjects(mod); i > 0; i--) {
+      if (!SkipObject(stream, mod))
+        return false;
+    }
+
+    if (mod.verCompare(1, 5) >= 0 && mod.verCompare(2, 3) < 0)
+      stream.skip(2);
+    else if (mod.verCompare(2, 3) >= 0)
+      stream.skip(4);
+
+    return mod.verCompare(1, 5) < 0 || SkipObject(stream, mod);
+  }
+
+  /* Reads co_filename, co_name and co_firstlineno after loadHeader(),
+   * stepping over the objects in between when possible; for header probes
+   * that have no use for the rest of the body */
+  void loadNames(PycData stream, PycModule mod) throws IOException {
+    int start = stream.position();
+    int interns = mod.m_numInterns;
+    int skip = BodyObjects(mod) - 2;
+
+    boolean skipped = true;
+    for (int i = 0; i < skip && skipped; i++)
+      skipped = SkipObject(stream, mod);
+    if (!skipped) {
+      stream.seek(start);
+      mod.m_numInterns = interns;
+      for (int i = 0; i < skip; i++)
+        LoadObject(stream, mod);
+    }
+
+    m_fileName = (PycString) LoadObject(stream, mod);
+    m_name = (PycString) LoadObject(stream, mod);
+
+    if (mod.verCompare(1, 5) >= 0 && mod.verCompare(2, 3) < 0)
+      m_firstLine = stream.get16();
+    else if (mod.verCompare(2, 3) >= 0)
+      m_firstLine = stream.get32();
+  }
+
+  static boolean Skip(int type, PycData stream, PycModule mod) throws IOException {
+    new PycCode(type).loadHeader(stream, mod);
+    return SkipBody(stream, mod);
+  }
+
+  /* Reads only the header of a nested code object and records where the
+   * rest lives, to be loaded on first use.  Returns null, with the stream
+   * and intern table rewound, if the body cannot be skipped; the caller
+   * then loads it normally. */
+  static PycCode LoadDeferred(int type, PycData stream, PycModule mod) throws IOException {
+    int start = stream.position();
+    int interns = mod.m_numInterns;
+
+    PycCode code = new PycCode(type);
+    code.loadHeader(stream, mod);
+    if (!SkipBody(stream, mod)) {
+      stream.seek(start);
+      mod.m_numInterns = interns;
+      return null;
+    }
+    code.m_deferred = new Deferred(mod, start, stream.position() - start);
+    return code;
+  }
+
+  /* Where a deferred code object lives in its module's source */
+  private static class Deferred {
+    final PycModule m_module;
+    final int m_offset; /* Just past the type byte */
+    final int m_length;
+
+    Deferred(PycModule module, int offset, int length) {
+      m_module = module;
+      m_offset = offset;
+      m_length = length;
+    }
+  }
+
+  private void ensureLoaded() {
+    if (m_deferred != null)
+      materialize();
+  }
+
+  private synchronized void materialize() {
+    Deferred deferred = m_deferred;
+    if (deferred == null)
+      return;
+
+    PycModule mod = deferred.m_module;
+    try {
+      PycData in = mod.m_source.duplicate();
+      in.seek(deferred.m_offset);
+      load(in, mod.replayView());
+      /* Anything else means the replay decoded different data than the
+       * skip measured, and the fields just read cannot be trusted */
+      if (in.position() != deferred.m_offset + deferred.m_length)
+        throw new IOException(String.format("read %d bytes, expected %d", in.position() - deferred.m_offset,
+            deferred.m_length));
+    } catch (IOException ex) {
+      throw new UncheckedIOException("Loading deferred code object at offset " + deferred.m_offset, ex);
+    }
+    m_deferred = null;
+  }
+
   int m_argCount, m_kwOnlyArgCount, m_numLocals, m_stackSize, m_flags;
   PycString m_code;
   PycSequence m_consts;
@@ -178,6 +329,8 @@ class PycCode extends PycObject {
   int m_firstLine;
   PycString m_lnTable;
   Set<PycObject> m_globalsUsed; /* Global vars used in this code */
+  private volatile int[] m_insns;
+  private volatile Deferred m_deferred; /* Non-null until a lazy body is loaded */
 }
 
 public class pyc_code {
@@ -0,0 +1,160 @@
+package pydecompiler.dis;
+
+import java.io.IOException;
+
+/* What can be learned about a compiled module without unmarshalling its
+ * code: the file header and the top-level code object's scalars.  probe()
+ * reads a few dozen bytes of a memory-mapped file; with names it also steps
+ * over the constants and name tuples (without building them) to reach
+ * co_filename, co_name and co_firstlineno.  Only the probes and the
+ * record they return are public. */
+public class pyc_header {
+  public static PycHeader probe(String filename) throws IOException {
+    return probe(filename, false);
+  }
+
+  public static PycHeader probe(String filename, boolean withNames) throws IOException {
+    PycModule mod = new PycModule();
+    PycMappedFile in = new PycMappedFile(filename);
+    if (!mod.loadHeader(in))
+      return new PycHeader(mod, null);
+
+    int type = in.getByte();
+    if (type < 0)
+      return new PycHeader(mod, null);
+    if ((type & PycObject.Type.FLAG_REF) != 0) {
+      mod.reserveRef();
+      type &= ~PycObject.Type.FLAG_REF;
+    }
+    if (type != PycObject.Type.TYPE_CODE && type != PycObject.Type.TYPE_CODE2)
+      return new PycHeader(mod, null);
+
+    PycCode code = new PycCode(type);
+    code.loadHeader(in, mod);
+    if (withNames)
+      code.loadNames(in, mod);
+    return new PycHeader(mod, code);
+  }
+
+  /* The probe result, immutable */
+  public static final class PycHeader {
+    private final int m_magic;
+    private final int m_majorVer;
+    private final int m_minorVer;
+    private final boolean m_unicode;
+    private final int m_timestamp;
+    private final int m_sourceSize;
+    private final boolean m_hasCode;
+    private final int m_argCount;
+    private final int m_kwOnlyArgCount;
+    private final int m_numLocals;
+    private final int m_stackSize;
+    private final int m_flags;
+    private final String m_name;
+    private final String m_fileName;
+    private final int m_firstLine;
+
+    private PycHeader(PycModule mod, PycCode code) {
+      m_magic = mod.m_magic;
+      m_majorVer = mod.majorVer();
+      m_minorVer = mod.minorVer();
+      m_unicode = mod.isUnicode();
+      m_timestamp = mod.m_timestamp;
+      m_sourceSize = mod.m_sourceSize;
+      m_hasCode = (code != null);
+      m_argCount = m_hasCode ? code.argCount() : 0;
+      m_kwOnlyArgCount = m_hasCode ? code.kwOnlyArgCount() : 0;
+      m_numLocals = m_hasCode ? code.numLocals() : 0;
+      m_stackSize = m_hasCode ? code.stackSize() : 0;
+      m_flags = m_hasCode ? code.flags() : 0;
+      m_name = (m_hasCode && code.m_name != null) ? code.m_name.value() : null;
+      m_fileName = (m_hasCode && code.m_fileName != null) ? code.m_fileName.value() : null;
+      m_firstLine = m_hasCode ? code.m_firstLine : 0;
+    }
+
+    /* False if the magic number is not one this decompiler knows */
+    public boolean isValid() {
+      return m_majorVer >= 0;
+    }
+
+    public int magic() {
+      return m_magic;
+    }
+
+    public int majorVer() {
+      return m_majorVer;
+    }
+
+    public int minorVer() {
+      return m_minorVer;
+    }
+
+    public boolean isUnicode() {
+      return m_unicode;
+    }
+
+    public int timestamp() {
+      return m_timestamp;
+    }
+
+    /* Size of the source file, stored from Python 3.3 on; -1 before that */
+    public int sourceSize() {
+      return m_sourceSize;
+    }
+
+    /* False if the file is invalid or does not hold a code object */
+    public boolean hasCode() {
+      return m_hasCode;
+    }
+
+    public int argCount() {
+      return m_argCount;
+    }
+
+    public int kwOnlyArgCount() {
+      return m_kwOnlyArgCount;
+    }
+
+    public int numLocals() {
+      return m_numLocals;
+    }
+
+    public int stackSize() {
+      return m_stackSize;
+    }
+
+    public int flags() {
+      return m_flags;
+    }
+
+    /* The remaining fields are only filled in by probe(filename, true) */
+    public String name() {
+      return m_name;
+    }
+
+    public String fileName() {
+      return m_fileName;
+    }
+
+    public int firstLine() {
+      return m_firstLine;
+    }
+
+    @Override
+    public String toString() {
+      if (!isValid())
+        return String.format("Unknown magic 0x%08X", m_magic);
+
+      StringBuilder str = new StringBuilder();
+      str.append("Python ").append(m_majorVer).append('.').append(m_minorVer);
+      if (m_majorVer < 3 && m_unicode)
+        str.append(" -U");
+      if (m_hasCode) {
+        str.append(", flags 0x").append(Integer.toHexString(m_flags));
+        if (m_name != null)
+          str.append(", ").append(m_name).append(" in ").append(m_fileName).append(':').append(m_firstLine);
+      }
+      return str.toString();
+    }
+  }
+}
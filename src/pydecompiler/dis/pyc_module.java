@@ -1,9 +1,7 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
 class PycMagic {
   public static final int MAGIC_1_0 = 0x00999902;
@@ -33,8 +31,22 @@ class PycModule {
   int m_maj = -1;
   int m_min = -1;
   boolean m_unicode = false;
+  Pyc.Opcode[] m_opcodes = Pyc.OpcodeTable(-1, -1);
   PycCode m_code;
-  List<PycString> m_interns = new LinkedList<PycString>();
+  PycString[] m_interns = new PycString[64]; /* Indexed by STRINGREF ref */
+  int m_numInterns = 0;
+  PycObject[] m_refs = new PycObject[16]; /* FLAG_REF objects, indexed by TYPE_REF ref */
+  int m_numRefs = 0;
+  int m_magic;
+  int m_timestamp;
+  int m_sourceSize = -1;
+
+  /* Lazy loading: nested code objects are skipped on load and read back
+   * from m_source when first used */
+  boolean m_lazy = false;
+  PycData m_source;
+  int m_codeDepth = 0;
+  boolean m_replay = false; /* A view used to re-read deferred code */
 
   boolean isValid() {
     return (m_maj >= 0) && (m_min >= 0);
@@ -58,12 +70,57 @@ class PycModule {
     return m_unicode;
   }
 
+  /* Byte-to-opcode table for this module's version, resolved once */
+  Pyc.Opcode[] opcodes() {
+    return m_opcodes;
+  }
+
   PycCode code() {
     return m_code;
   }
 
+  /* Must be called before loading */
+  void setLazy(boolean lazy) {
+    m_lazy = lazy;
+  }
+
+  boolean isLazy() {
+    return m_lazy;
+  }
+
+  /* True if a code object about to be read may be deferred: lazy mode and
+   * not the top-level code */
+  boolean canDefer() {
+    return m_lazy && m_codeDepth > 0;
+  }
+
+  /* A module that shares this one's version and tables but does not add
+   * interns, for re-reading a deferred code object whose strings were
+   * already interned during the first pass.  Each caller gets its own view,
+   * so concurrent materializations do not share the depth counter. */
+  synchronized PycModule replayView() {
+    PycModule view = new PycModule();
+    view.m_maj = m_maj;
+    view.m_min = m_min;
+    view.m_unicode = m_unicode;
+    view.m_opcodes = m_opcodes;
+    view.m_interns = m_interns;
+    view.m_numInterns = m_numInterns;
+    view.m_refs = m_refs;
+    view.m_numRefs = m_numRefs;
+    view.m_lazy = m_lazy;
+    view.m_source = m_source;
+    view.m_replay = true;
+    return view;
+  }
+
   void intern(PycString str) {
-    m_interns.add(str);
+    if (m_replay)
+      return;
+    if (m_numInterns == m_interns.length)
+      m_interns = Arrays.copyOf(m_interns, m_interns.length * 2);
+    /* The same instance LoadObject will return for it */
+    m_interns[m_numInterns++] = (PycString) str.canonical();
   }
 
   private void setVersion(int magic) {
@@ -187,33 +244,73 @@ class PycModule {
       m_maj = -1;
       m_min = -1;
     }
+
+    m_opcodes = Pyc.OpcodeTable(m_maj, m_min);
   }
 
   void loadFromFile(String filename) throws IOException {
-    PycFile in = new PycFile(filename);
+    PycMappedFile in = new PycMappedFile(filename);
     if (!in.isOpen()) {
       System.err.printf("Error opening file %s\n", filename);
       return;
     }
-    setVersion(in.get32());
-    if (!isValid()) {
+    load(in);
+  }
+
+  /* Loads a module already read into memory, e.g. an archive entry */
+  void loadFromBuffer(byte[] buffer, int size) throws IOException {
+    load(new PycBuffer(buffer, size));
+  }
+
+  /* Reads the magic, timestamp and (3.3+) source size that precede the
+   * code object.  Returns false if the magic is not recognised. */
+  boolean loadHeader(PycData in) throws IOException {
+    m_magic = in.get32();
+    setVersion(m_magic);
+    if (!isValid())
+      return false;
+    m_timestamp = in.get32();
+
+    if (verCompare(3, 3) >= 0)
+      m_sourceSize = in.get32(); // Size parameter added in Python 3.3
+    return true;
+  }
+
+  private void load(PycData in) throws IOException {
+    if (!loadHeader(in)) {
       System.err.printf("Bad MAGIC!\n");
       return;
     }
-    in.get32(); // Timestamp -- who cares?
-
-    if (verCompare(3, 3) >= 0)
-      in.get32(); // Size parameter added in Python 3.3
 
+    if (m_lazy)
+      m_source = in;
     m_code = (PycCode) PycObject.LoadObject(in, this);
   }
 
+  int reserveRef() {
+    if (m_numRefs == m_refs.length)
+      m_refs = Arrays.copyOf(m_refs, m_refs.length * 2);
+    return m_numRefs++;
+  }
+
+  void setRef(int ref, PycObject obj) {
+    m_refs[ref] = obj;
+  }
+
+  PycObject getRef(int ref) {
+    if (ref < 0 || ref >= m_numRefs || m_refs[ref] == null) {
+      System.err.printf("Bad object reference %d (%d stored)\n", ref, m_numRefs);
+      return PycObject.Pyc_None;
+    }
+    return m_refs[ref];
+  }
+
   PycString getIntern(int ref) {
-    Iterator<PycString> it = m_interns.iterator();
-    for (int i = 0; i < ref; i++, it.next())
-      /* move forward to ref */
-      ;
-    return it.next();
+    if (ref < 0 || ref >= m_numInterns) {
+      System.err.printf("Bad string reference %d (%d interned)\n", ref, m_numInterns);
+      return new PycString();
+    }
+    return m_interns[ref];
   }
 
 }
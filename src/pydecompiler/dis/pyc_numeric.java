@@ -1,12 +1,9 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
-import java.util.ListIterator;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Locale;
 
 class PycInt extends PycObject {
   PycInt() {
@@ -19,7 +16,19 @@ class PycInt extends PycObject {
   }
 
   boolean isEqual(PycObject obj) {
-    return type() == ((PycInt) obj).type() && m_value == ((PycInt) obj).m_value;
+    if (obj == this)
+      return true;
+    return type() == obj.type() && m_value == ((PycInt) obj).m_value;
+  }
+
+  PycObject canonical() {
+    PycInt shared = PycConstCache.smallInt(m_value);
+    return (shared != null) ? shared : this;
+  }
+
+  @Override
+  public int hashCode() {
+    return m_value;
   }
 
   // void load(class PycData stream, PycModule mod);
@@ -35,6 +44,8 @@ class PycInt extends PycObject {
 }
 
 class PycLong extends PycObject {
+  private static final short[] NO_DIGITS = new short[0];
+
   PycLong() {
     super(Type.TYPE_LONG);
   }
@@ -43,33 +54,38 @@ class PycLong extends PycObject {
     super(type);
   }
 
-  // boolean isEqual(PycRef<PycObject> obj);
-  //
-  // void load(class PycData stream, class PycModule mod);
-
+  /* Number of digits, negated for negative values, as marshal stores it */
   int size() {
     return m_size;
   }
 
-  List<Integer> value() {
-    return m_value;
+  /* 15-bit digits, least significant first */
+  short[] digits() {
+    return m_digits;
   }
 
   void load(PycData stream, PycModule mod) throws IOException {
     if (type() == Type.TYPE_INT64) {
-      int lo = stream.get32();
-      int hi = stream.get32();
-      m_value.add((lo) & 0xFFFF);
-      m_value.add((lo >> 16) & 0xFFFF);
-      m_value.add((hi) & 0xFFFF);
-      m_value.add((hi >> 16) & 0xFFFF);
-      m_size = (hi & 0x80000000) != 0 ? -4 : 4;
+      long i64 = stream.get64();
+      // Split the magnitude into 15-bit digits; unsigned shifts keep
+      // Long.MIN_VALUE, whose magnitude does not fit a long, correct
+      long mag = (i64 < 0) ? -i64 : i64;
+      short[] digits = new short[5];
+      int count = 0;
+      while (mag != 0) {
+        digits[count++] = (short) (mag & 0x7FFF);
+        mag >>>= 15;
+      }
+      m_digits = Arrays.copyOf(digits, count);
+      m_size = (i64 < 0) ? -count : count;
     } else {
       m_size = stream.get32();
       int actualSize = m_size >= 0 ? m_size : -m_size;
+      m_digits = new short[actualSize];
       for (int i = 0; i < actualSize; i++)
-        m_value.add(stream.get16());
+        m_digits[i] = (short) stream.get16();
     }
+    m_repr = null;
   }
 
   boolean isEqual(PycObject obj) {
@@ -77,62 +93,46 @@ class PycLong extends PycObject {
       return false;
 
     PycLong longObj = (PycLong) obj;
-    if (m_size != longObj.m_size)
-      return false;
-    Iterator<Integer> it1 = m_value.iterator();
-    Iterator<Integer> it2 = longObj.m_value.iterator();
-    for (Integer i = it1.next(); i != m_value.get(m_value.size() - 1);) {
-      if (it1.next() != it2.next())
-        return false;
-      // ++it1, ++it2;
+    return m_size == longObj.m_size && Arrays.equals(m_digits, longObj.m_digits);
+  }
+
+  @Override
+  public int hashCode() {
+    return m_size * 31 + Arrays.hashCode(m_digits);
+  }
+
+  BigInteger toBigInteger() {
+    // Pack the digits into a big-endian two's complement magnitude
+    int bits = m_digits.length * 15;
+    byte[] mag = new byte[bits / 8 + 2];
+    for (int i = 0; i < m_digits.length; i++) {
+      int bit = i * 15;
+      int value = (m_digits[i] & 0x7FFF) << (bit & 7);
+      for (int j = mag.length - 1 - bit / 8; value != 0; j--, value >>>= 8)
+        mag[j] |= (byte) value;
     }
-    return true;
+    BigInteger result = new BigInteger(1, mag);
+    return (m_size < 0) ? result.negate() : result;
   }
 
   String repr() {
     // Longs are printed as hex, since it's easier (and faster) to convert
     // arbitrary-length integers to a power of two than an arbitrary base
-
-    if (m_size == 0)
-      return "0x0L";
-
-    // Realign to 32 bits, since Python uses only 15
-    ArrayList<Integer> bits = new ArrayList<Integer>();
-    Integer bit;
-    ListIterator<Integer> iter;
-    int shift = 0, temp = 0;
-    for (iter = m_value.listIterator(); iter.hasNext() && (bit = iter.next()) != m_value.get(m_value.size() - 1);) {
-      temp |= bit << shift;
-      shift += 15;
-      if (shift >= 32) {
-        bits.add(temp);
-        shift -= 32;
-        temp = bit >> (15 - shift);
-      }
+    String repr = m_repr;
+    if (repr == null) {
+      BigInteger value = toBigInteger();
+      StringBuilder accum = new StringBuilder(m_digits.length * 4 + 4);
+      if (value.signum() < 0)
+        accum.append('-');
+      accum.append("0x").append(value.abs().toString(16).toUpperCase(Locale.ROOT)).append('L');
+      m_repr = repr = accum.toString();
     }
-    if (temp != 0)
-      bits.add(temp);
-
-    char[] accum = new char[3 + (bits.size() * 8) + 2];
-    int aptr = 0;
-
-    if (m_size < 0)
-      accum[aptr++] = '-';
-    accum[aptr++] = '0';
-    accum[aptr++] = 'x';
-
-    iter = bits.listIterator(bits.size());
-
-    // aptr += snprintf(aptr, 9, "%X", iter.previous());
-    // while (iter.hasPrevious())
-    // aptr += snprintf(aptr, 9, "%08X", iter.previous());
-    accum[aptr++] = 'L';
-    accum[aptr++] = 0;
-    return accum.toString();
+    return repr;
   }
 
   private int m_size;
-  private List<Integer> m_value;
+  private short[] m_digits = NO_DIGITS;
+  private String m_repr;
 }
 
 class PycFloat extends PycObject {
@@ -170,9 +170,12 @@ class PycFloat extends PycObject {
       return false;
 
     PycFloat floatObj = (PycFloat) obj;
-    if (m_value == floatObj.m_value)
-      return true;
-    return m_value.equals(floatObj.m_value);
+    return Arrays.equals(m_value, floatObj.m_value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(m_value);
   }
 
   String value() {
@@ -212,9 +215,12 @@ class PycComplex extends PycFloat {
       return false;
 
     PycComplex floatObj = (PycComplex) obj;
-    if (m_imag == floatObj.m_imag)
-      return true;
-    return m_imag.equals(floatObj.m_imag);
+    return Arrays.equals(m_imag, floatObj.m_imag);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + Arrays.hashCode(m_imag);
   }
 
   String imag() {
@@ -234,22 +240,21 @@ class PycCFloat extends PycObject {
     m_value = 0.0;
   }
 
+  /* Bitwise, so 0.0 and -0.0 (distinct constants to Python) differ */
   boolean isEqual(PycObject obj) {
-    return type() == obj.type() && m_value == ((PycCFloat) obj).m_value;
+    if (obj == this)
+      return true;
+    return type() == obj.type()
+        && Double.doubleToLongBits(m_value) == Double.doubleToLongBits(((PycCFloat) obj).m_value);
+  }
+
+  @Override
+  public int hashCode() {
+    return Double.hashCode(m_value);
   }
 
   void load(PycData stream, PycModule mod) throws IOException {
-    //long i64 = stream.get64();
-    // memcpy(&m_value, &i64, sizeof(Pyc_INT64));
-    
-    byte[] i64 = stream.get64a();
-    ByteBuffer buf = ByteBuffer.allocate(8).put(i64);
-    // Flips this buffer.  The limit is set to the current position and then
-    // the position is set to zero.
-    buf.flip();
-    /* Ensure endianness */
-    buf.order(buf.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
-    m_value = buf.getDouble();
+    m_value = stream.getDouble();
   }
 
   double value() {
@@ -269,14 +274,20 @@ class PycCComplex extends PycCFloat {
   }
 
   boolean isEqual(PycObject obj) {
-    return super.isEqual(obj) && m_imag == ((PycCComplex) obj).m_imag;
+    return super.isEqual(obj)
+        && Double.doubleToLongBits(m_imag) == Double.doubleToLongBits(((PycCComplex) obj).m_imag);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode() * 31 + Double.hashCode(m_imag);
   }
 
   // void load(class PycData stream, class PycModule mod);
 
   void load(PycData stream, PycModule mod) throws IOException {
     super.load(stream, mod);
-    m_imag = (double) stream.get64();
+    m_imag = stream.getDouble();
   }
 
   double imag() {
@@ -1,6 +1,7 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
 class PycObject {
   public static class Type {
@@ -30,6 +31,11 @@ class PycObject {
     public static final char TYPE_UNKNOWN = '?';
     public static final char TYPE_SET = '<';
     public static final char TYPE_FROZENSET = '>';
+    public static final char TYPE_REF = 'r';
+
+    /* Set on a type code when the object should go into the reference
+     * table so later TYPE_REF entries can point back to it */
+    public static final int FLAG_REF = 0x80;
   };
 
   public PycObject() {
@@ -44,8 +50,39 @@ class PycObject {
     return m_type;
   }
 
+  /* Subclasses that compare by value override this and hashCode together,
+   * so equal objects hash alike (PycDict relies on it).  The singletons
+   * (None, True, ...) compare by identity. */
   boolean isEqual(PycObject obj) {
-    return this.equals(obj);
+    return obj == this;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof PycObject && isEqual((PycObject) obj);
+  }
+
+  /* Matches the identity isEqual above */
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(this);
+  }
+
+  /* Null-safe forms, for containers holding Pyc_NULL */
+  static boolean IsEqual(PycObject a, PycObject b) {
+    if (a == b)
+      return true;
+    return a != null && b != null && a.isEqual(b);
+  }
+
+  static int HashObject(PycObject obj) {
+    return (obj == null) ? 0 : obj.hashCode();
+  }
+
+  /* The shared instance for an equal constant, or this object if it is
+   * not one that gets shared */
+  PycObject canonical() {
+    return this;
   }
 
   void load(PycData data, PycModule mod) throws IOException {
@@ -116,14 +153,151 @@ class PycObject {
   }
 
   public static PycObject LoadObject(PycData stream, PycModule mod) throws IOException {
-    PycObject obj = CreateObject(stream.getByte());
-    if (obj != Pyc_NULL) {
+    int type = stream.getByte();
+    if (type < 0) {
+      System.err.printf("LoadObject: Unexpected end of file\n");
+      return Pyc_NULL;
+    }
+    boolean flagged = (type & Type.FLAG_REF) != 0;
+    type &= ~Type.FLAG_REF;
+
+    if (type == Type.TYPE_REF)
+      return mod.getRef(stream.get32());
 
+    if ((type == Type.TYPE_CODE || type == Type.TYPE_CODE2) && !flagged && mod.canDefer()) {
+      PycCode deferred = PycCode.LoadDeferred(type, stream, mod);
+      if (deferred != null)
+        return deferred;
+    }
+
+    PycObject obj = CreateObject(type);
+    /* The slot is taken before the contents are read, matching the order
+     * in which marshal numbers nested flagged objects */
+    int ref = flagged ? mod.reserveRef() : -1;
+    if (obj != Pyc_NULL) {
       obj.load(stream, mod);
+      obj = obj.canonical();
     }
+    if (flagged)
+      mod.setRef(ref, obj);
     return obj;
   }
 
+  /* Steps over one marshalled object without building it.  Interned
+   * strings are still registered, since later STRINGREFs count them.
+   * Returns false, with the stream position undefined, on anything that
+   * cannot be skipped safely: FLAG_REF objects (later TYPE_REFs may need
+   * the instance), unknown types and end of file. */
+  static boolean SkipObject(PycData stream, PycModule mod) throws IOException {
+    int type = stream.getByte();
+    if (type < 0 || (type & Type.FLAG_REF) != 0)
+      return false;
+
+    switch (type) {
+    case PycObject.Type.TYPE_NULL:
+    case PycObject.Type.TYPE_NONE:
+    case PycObject.Type.TYPE_FALSE:
+    case PycObject.Type.TYPE_TRUE:
+    case PycObject.Type.TYPE_STOPITER:
+    case PycObject.Type.TYPE_ELLIPSIS:
+      return true;
+    case PycObject.Type.TYPE_INT:
+    case PycObject.Type.TYPE_STRINGREF:
+    case PycObject.Type.TYPE_REF:
+      stream.skip(4);
+      return true;
+    case PycObject.Type.TYPE_INT64:
+    case PycObject.Type.TYPE_BINARY_FLOAT:
+      stream.skip(8);
+      return true;
+    case PycObject.Type.TYPE_BINARY_COMPLEX:
+      stream.skip(16);
+      return true;
+    case PycObject.Type.TYPE_FLOAT:
+      stream.skip(stream.getByte());
+      return true;
+    case PycObject.Type.TYPE_COMPLEX:
+      stream.skip(stream.getByte());
+      stream.skip(stream.getByte());
+      return true;
+    case PycObject.Type.TYPE_LONG:
+      stream.skip(2 * Math.abs(stream.get32()));
+      return true;
+    case PycObject.Type.TYPE_STRING:
+    case PycObject.Type.TYPE_UNICODE:
+      stream.skip(stream.get32());
+      return true;
+    case PycObject.Type.TYPE_INTERNED:
+      new PycString(PycObject.Type.TYPE_INTERNED).load(stream, mod);
+      return true;
+    case PycObject.Type.TYPE_TUPLE:
+    case PycObject.Type.TYPE_LIST:
+    case PycObject.Type.TYPE_SET:
+    case PycObject.Type.TYPE_FROZENSET: {
+      int size = stream.get32();
+      for (int i = 0; i < size; i++) {
+        if (!SkipObject(stream, mod))
+          return false;
+      }
+      return true;
+    }
+    case PycObject.Type.TYPE_DICT:
+      for (;;) {
+        int pos = stream.position();
+        if (stream.getByte() == Type.TYPE_NULL)
+          return true;
+        stream.seek(pos);
+        if (!SkipObject(stream, mod) || !SkipObject(stream, mod))
+          return false;
+      }
+    case PycObject.Type.TYPE_CODE:
+    case PycObject.Type.TYPE_CODE2:
+      return PycCode.Skip(type, stream, mod);
+    default:
+      return false;
+    }
+  }
+
+}
+
+/* Flyweights for the constants that repeat across modules: small ints and
+ * short strings (identifiers, mostly) are shared by every module loaded in
+ * the JVM, like Pyc_None is.  Shared instances must never be reloaded; only
+ * LoadObject and PycModule.intern hand out objects from here, after their
+ * load has finished. */
+class PycConstCache {
+  static final int MIN_SMALL_INT = -5;
+  static final int MAX_SMALL_INT = 256;
+  static final int MAX_STRING_LENGTH = 32;
+  static final int MAX_STRINGS = 64 * 1024;
+
+  private static final PycInt[] s_smallInts = new PycInt[MAX_SMALL_INT - MIN_SMALL_INT + 1];
+  static {
+    for (int i = 0; i < s_smallInts.length; i++)
+      s_smallInts[i] = new PycInt(i + MIN_SMALL_INT);
+  }
+
+  /* Keyed by type and bytes; see PycString.equals */
+  private static final ConcurrentHashMap<PycString, PycString> s_strings = new ConcurrentHashMap<PycString, PycString>();
+
+  static PycInt smallInt(int value) {
+    if (value < MIN_SMALL_INT || value > MAX_SMALL_INT)
+      return null;
+    return s_smallInts[value - MIN_SMALL_INT];
+  }
+
+  static PycString string(PycString str) {
+    if (str.length() > MAX_STRING_LENGTH)
+      return str;
+    PycString shared = s_strings.get(str);
+    if (shared != null)
+      return shared;
+    /* Once full, later strings simply stay unshared */
+    if (s_strings.size() >= MAX_STRINGS)
+      return str;
+    shared = s_strings.putIfAbsent(str, str);
+    return (shared != null) ? shared : str;
+  }
 }
 
 public class pyc_object {
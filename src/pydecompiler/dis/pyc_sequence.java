@@ -1,12 +1,15 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
+/* Array-backed base of the marshal containers: elements stay in marshal
+ * order, so get(idx) is O(1) and printing is deterministic */
 abstract class PycSequence extends PycObject {
+  static final PycObject[] NO_VALUES = new PycObject[0];
+
   PycSequence(int type) {
     super(type);
   }
@@ -15,125 +18,74 @@ abstract class PycSequence extends PycObject {
     return m_size;
   }
 
-  abstract PycObject get(int idx);
-
-  // {
-  // return null;
-  // }
-
-  int m_size;
-}
-
-class PycTuple extends PycSequence {
-  private List<PycObject> m_values = new ArrayList<PycObject>();
-
-  public PycTuple() {
-    super(Type.TYPE_TUPLE);
+  PycObject get(int idx) {
+    if (idx < 0 || idx >= m_size)
+      return Pyc_NULL;
+    return m_values[idx];
   }
 
-  public PycTuple(int type) {
-    super(type);
+  /* A read-only view, not a copy */
+  List<PycObject> values() {
+    return Collections.unmodifiableList(Arrays.asList(m_values).subList(0, m_size));
   }
 
-  // boolean isEqual(PycObject> obj);
-
-  // void load(class PycData stream, class PycModule mod);
   void load(PycData stream, PycModule mod) throws IOException {
     m_size = stream.get32();
-    // m_values.resize(m_size);
+    m_values = (m_size > 0) ? new PycObject[m_size] : NO_VALUES;
     for (int i = 0; i < m_size; i++)
-      m_values.add(LoadObject(stream, mod));
+      m_values[i] = LoadObject(stream, mod);
   }
 
+  /* Element by element, in marshal order */
   boolean isEqual(PycObject obj) {
+    if (obj == this)
+      return true;
     if (type() != obj.type())
       return false;
 
-    PycTuple tupleObj = (PycTuple) obj;
-    if (m_size != tupleObj.m_size)
+    PycSequence seqObj = (PycSequence) obj;
+    if (m_size != seqObj.m_size)
       return false;
-    Iterator<PycObject> it1 = m_values.iterator();
-    Iterator<PycObject> it2 = tupleObj.m_values.iterator();
-    while (it1 != m_values.get(m_values.size() - 1)) {
-      if (!it1.next().isEqual(it2.next()))
+    for (int i = 0; i < m_size; i++) {
+      if (!IsEqual(m_values[i], seqObj.m_values[i]))
         return false;
-      // ++it1, ++it2;
     }
     return true;
   }
 
-  public List<PycObject> values() {
-    return m_values;
+  @Override
+  public int hashCode() {
+    int hash = type();
+    for (int i = 0; i < m_size; i++)
+      hash = hash * 31 + HashObject(m_values[i]);
+    return hash;
   }
 
-  public PycObject get(int idx) {
-    if (m_values.size() == 0)
-      return null;
-    if (idx > m_values.size())
-      idx = m_values.size() - 1;
-    return m_values.get(idx);
+  int m_size;
+  PycObject[] m_values = NO_VALUES;
+}
+
+class PycTuple extends PycSequence {
+  public PycTuple() {
+    super(Type.TYPE_TUPLE);
   }
 
+  public PycTuple(int type) {
+    super(type);
+  }
 }
 
 class PycList extends PycSequence {
-
-  List<PycObject> value_t;
-
   PycList() {
     super(Type.TYPE_LIST);
-
   }
 
   PycList(int type) {
     super(type);
   }
-
-  // boolean isEqual(PycObject obj);
-
-  // void load(class PycData stream, class PycModule mod);
-  void load(PycData stream, PycModule mod) throws IOException {
-    m_size = stream.get32();
-    for (int i = 0; i < m_size; i++)
-      m_values.add(LoadObject(stream, mod));
-  }
-
-  boolean isEqual(PycObject obj) {
-    if (type() != obj.type())
-      return false;
-
-    PycList listObj = (PycList) obj;
-    if (m_size != listObj.m_size)
-      return false;
-    Iterator<PycObject> it1 = m_values.iterator();
-    Iterator<PycObject> it2 = listObj.m_values.iterator();
-    while (it1 != m_values.get(m_values.size() - 1)) {
-      if (!it1.next().isEqual(it2.next()))
-        return false;
-      // ++it1, ++it2;
-    }
-    return true;
-  }
-
-  List<PycObject> values() {
-    return m_values;
-  }
-
-  PycObject get(int idx) {
-    Iterator<PycObject> it = m_values.iterator();
-    for (int i = 0; i < idx; i++)
-      it.next();
-    return it.next();
-  }
-
-  private List<PycObject> m_values;
 }
 
 class PycDict extends PycSequence {
-
-  List<PycObject> key_t;
-  List<PycObject> value_t;
-
   PycDict() {
     super(Type.TYPE_DICT);
   }
@@ -142,11 +94,6 @@ class PycDict extends PycSequence {
     super(type);
   }
 
-  // bool isEqual(PycObject> obj);
-
-  // void load(class PycData stream, class PycModule mod);
-
-  // PycObject get(PycObject key);
   void load(PycData stream, PycModule mod) throws IOException {
     PycObject key, val;
     for (;;) {
@@ -154,70 +101,106 @@ class PycDict extends PycSequence {
       if (key == Pyc_NULL)
         break;
       val = LoadObject(stream, mod);
-      m_keys.add(key);
-      m_values.add(val);
+      put(key, val);
     }
   }
 
+  /* Adds an entry at the end, or replaces the value of an existing key */
+  void put(PycObject key, PycObject value) {
+    if (m_size * 2 >= m_index.length)
+      rehash(Math.max(8, m_index.length * 2));
+
+    int slot = findSlot(key);
+    if (m_index[slot] != 0) {
+      m_values[m_index[slot] - 1] = value;
+      return;
+    }
+    if (m_size == m_keys.length) {
+      int capacity = Math.max(4, m_size * 2);
+      m_keys = Arrays.copyOf(m_keys, capacity);
+      m_values = Arrays.copyOf(m_values, capacity);
+    }
+    m_keys[m_size] = key;
+    m_values[m_size] = value;
+    m_index[slot] = ++m_size;
+  }
+
+  /* The slot holding key, or the empty slot where it would go */
+  private int findSlot(PycObject key) {
+    int mask = m_index.length - 1;
+    int slot = spread(HashObject(key)) & mask;
+    while (m_index[slot] != 0 && !IsEqual(m_keys[m_index[slot] - 1], key))
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    m_index = new int[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < m_size; i++) {
+      int slot = spread(HashObject(m_keys[i])) & mask;
+      while (m_index[slot] != 0)
+        slot = (slot + 1) & mask;
+      m_index[slot] = i + 1;
+    }
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  /* Dicts are equal when they hold the same mappings, in any order */
   boolean isEqual(PycObject obj) {
+    if (obj == this)
+      return true;
     if (type() != obj.type())
       return false;
 
     PycDict dictObj = (PycDict) obj;
     if (m_size != dictObj.m_size)
       return false;
-
-    Iterator<PycObject> ki1 = m_keys.iterator();
-    Iterator<PycObject> ki2 = dictObj.m_keys.iterator();
-    while (ki1 != m_keys.get(m_values.size() - 1)) {
-      if (!ki1.next().isEqual(ki2.next()))
-        return false;
-      // ++ki1, ++ki2;
-    }
-
-    Iterator<PycObject> vi1 = m_values.iterator();
-    Iterator<PycObject> vi2 = dictObj.m_values.iterator();
-    while (vi1 != m_values.get(m_values.size() - 1)) {
-      if (!vi1.next().isEqual(vi2.next()))
+    for (int i = 0; i < m_size; i++) {
+      int slot = dictObj.findSlot(m_keys[i]);
+      if (dictObj.m_index[slot] == 0 || !IsEqual(m_values[i], dictObj.m_values[dictObj.m_index[slot] - 1]))
         return false;
-      // ++vi1, ++vi2;
     }
     return true;
   }
 
+  @Override
+  public int hashCode() {
+    int hash = 0;
+    for (int i = 0; i < m_size; i++)
+      hash += HashObject(m_keys[i]) ^ HashObject(m_values[i]);
+    return hash;
+  }
+
   PycObject get(PycObject key) {
-    Iterator<PycObject> ki = m_keys.iterator();
-    Iterator<PycObject> vi = m_values.iterator();
-    while (ki != m_keys.get(m_values.size() - 1)) {
-      if (ki.next().isEqual(key))
-        return vi.next();
-      // ++ki, ++vi;
-    }
-    return Pyc_NULL; // Disassembly shouldn't get non-existant keys
+    if (m_size == 0)
+      return Pyc_NULL;
+    int entry = m_index[findSlot(key)];
+    return (entry != 0) ? m_values[entry - 1] : Pyc_NULL; // Disassembly shouldn't get non-existant keys
   }
 
-  List<PycObject> keys() {
-    return m_keys;
+  boolean containsKey(PycObject key) {
+    return m_size != 0 && m_index[findSlot(key)] != 0;
   }
 
-  List<PycObject> values() {
-    return m_values;
+  List<PycObject> keys() {
+    return Collections.unmodifiableList(Arrays.asList(m_keys).subList(0, m_size));
   }
 
-  PycObject get(int idx) {
-    Iterator<PycObject> it = m_values.iterator();
-    for (int i = 0; i < idx; i++)
-      it.next();
-    return it.next();
+  PycObject key(int idx) {
+    return m_keys[idx];
   }
 
-  private List<PycObject> m_keys;
-  private List<PycObject> m_values;
+  private PycObject[] m_keys = NO_VALUES;
+  private int[] m_index = new int[0]; /* Entry index + 1 per slot; 0 is empty */
 }
 
+/* Kept as a sequence rather than a hash set: marshal order is what the
+ * compiler emitted, and printing it back keeps output reproducible */
 class PycSet extends PycSequence {
-  private Set<PycObject> m_values;
-
   PycSet() {
     super(Type.TYPE_SET);
   }
@@ -226,45 +209,42 @@ class PycSet extends PycSequence {
     super(type);
   }
 
-  // boolean isEqual(PycObject obj);
-
-  // void load(class PycData stream, class PycModule mod);
-  void load(PycData stream, PycModule mod) throws IOException {
-    m_size = stream.get32();
-    for (int i = 0; i < m_size; i++)
-      m_values.add(LoadObject(stream, mod));
-  }
-
+  /* Sets are equal when they hold the same elements, in any order.
+   * Marshalled sets have no duplicates, so one-way containment and equal
+   * sizes are enough.  Element hashes reject most unequal sets up front,
+   * and the same marshal order skips the containment scan. */
   boolean isEqual(PycObject obj) {
+    if (obj == this)
+      return true;
     if (type() != obj.type())
       return false;
 
     PycSet setObj = (PycSet) obj;
-    if (m_size != setObj.m_size)
+    if (m_size != setObj.m_size || hashCode() != setObj.hashCode())
       return false;
-    Iterator<PycObject> it1 = m_values.iterator();
-    Iterator<PycObject> it2 = setObj.m_values.iterator();
-    for (PycObject o = it1.next(); o != m_values.toArray(new PycObject[0])[m_values.size() - 1];) {
-      if (!it1.next().isEqual(it2.next()))
+    for (int i = 0; i < m_size; i++) {
+      if (!IsEqual(m_values[i], setObj.m_values[i]) && !setObj.contains(m_values[i]))
         return false;
-      // ++it1, ++it2;
     }
     return true;
   }
 
-  Set<PycObject> values() {
-    return m_values;
+  private boolean contains(PycObject value) {
+    for (int i = 0; i < m_size; i++) {
+      if (IsEqual(value, m_values[i]))
+        return true;
+    }
+    return false;
   }
 
-  PycObject get(int idx) {
-    Iterator<PycObject> it = m_values.iterator();
-    for (int i = 0; i < idx; i++)
-      it.next();
-
-    return it.next();
+  @Override
+  public int hashCode() {
+    int hash = type();
+    for (int i = 0; i < m_size; i++)
+      hash += HashObject(m_values[i]);
+    return hash;
   }
-
-};
+}
 
 public class pyc_sequence {
 }
@@ -1,156 +1,223 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+import pydecompiler.util.OutputSink;
+
+/* Holds the marshalled bytes; the Java String is decoded once, on first
+ * use, with the charset the type implies: UTF-8 for unicode objects (and
+ * for Python 3 identifiers, which are interned unicode), Latin-1 for byte
+ * strings so every byte maps to exactly one char. */
 class PycString extends PycObject {
-  private byte[] m_value = new byte[0];
+  private static final byte[] NO_BYTES = new byte[0];
+
+  private byte[] m_value = NO_BYTES;
   private int m_length;
+  private boolean m_utf8;
+  private boolean m_ascii = true;
+  private int m_hash;
+  private String m_string; /* Decoded lazily; benign race, Strings are immutable */
 
   public PycString() {
     super(Type.TYPE_STRING);
+    m_hash = hashBytes();
   }
 
   public PycString(int type) {
     super(type);
+    m_utf8 = (type == Type.TYPE_UNICODE);
+    m_hash = hashBytes();
   }
 
   public int length() {
     return m_length;
   }
 
+  /* The raw bytes, without going through a charset */
+  byte[] bytes() {
+    return m_value;
+  }
+
+  /* True if every byte is 7-bit, so both charsets decode it alike */
+  boolean isAscii() {
+    return m_ascii;
+  }
+
   public String value() {
-    if (m_value == null)
-      return "";
-    return new String(m_value);
+    String str = m_string;
+    if (str == null) {
+      if (m_length == 0)
+        str = "";
+      else
+        str = new String(m_value, (m_utf8 && !m_ascii) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+      m_string = str;
+    }
+    return str;
   }
 
   public void load(PycData stream, PycModule mod) throws IOException {
-    if (m_value != null)
-      m_value = null;
+    m_string = null;
+    m_utf8 = (type() == Type.TYPE_UNICODE) || (mod.majorVer() >= 3 && type() != Type.TYPE_STRING);
 
     if (type() == Type.TYPE_STRINGREF) {
       PycString str = mod.getIntern(stream.get32());
-      m_length = str.length();
-      if (m_length != 0) {
-        // m_value = new byte[m_length + 1];
-        m_value = str.value().getBytes();
-        // m_value[m_length] = 0;
-      } else {
-        m_value = null;
-      }
+      /* String bytes are never modified after loading, so share them */
+      m_length = str.m_length;
+      m_value = str.m_value;
+      m_ascii = str.m_ascii;
     } else {
       m_length = stream.get32();
       if (m_length != 0) {
         m_value = new byte[m_length];
         stream.getBuffer(m_length, m_value);
-        // m_value[m_length] = 0;
       } else {
-        m_value = null;
+        m_value = NO_BYTES;
       }
-
-      if (type() == Type.TYPE_INTERNED)
-        mod.intern(this);
+      m_ascii = true;
+      for (int i = 0; i < m_length && m_ascii; i++)
+        m_ascii = (m_value[i] >= 0);
     }
+    m_hash = hashBytes();
+
+    if (type() == Type.TYPE_INTERNED)
+      mod.intern(this);
+  }
+
+  private int hashBytes() {
+    return type() * 31 + Arrays.hashCode(m_value);
   }
 
   public boolean isEqual(PycObject obj) {
+    if (obj == this)
+      return true;
     if (type() != obj.type())
       return false;
 
     PycString strObj = (PycString) obj;
-    return this.isEqual(new String(strObj.m_value));
+    return m_hash == strObj.m_hash && m_length == strObj.m_length && Arrays.equals(m_value, strObj.m_value);
   }
 
+  /* Compares ASCII text against the bytes directly, without decoding */
   public boolean isEqual(String str) {
-    return new String(m_value).equals(str);
+    if (m_string != null || !m_ascii)
+      return value().equals(str);
+    if (str.length() != m_length)
+      return false;
+    for (int i = 0; i < m_length; i++) {
+      if (m_value[i] != str.charAt(i))
+        return false;
+    }
+    return true;
   }
 
-  public static void OutputString(PycString str, char prefix) {
-    OutputString(str, prefix, false, pyc_output);
+  PycObject canonical() {
+    /* Only ASCII is shared: other bytes decode differently by version */
+    return m_ascii ? PycConstCache.string(this) : this;
   }
 
-  static PrintStream pyc_output = PycData.pyc_output;
-
-  public static void OutputString(PycString str, char prefix, boolean triple) {
-    OutputString(str, prefix, triple, pyc_output);
+  @Override
+  public int hashCode() {
+    return m_hash;
   }
 
+  /* How OutputString treats each char below 256 */
+  private static final byte ESC_NONE = 0;
+  private static final byte ESC_HEX = 1; /* Control characters: \xNN */
+  private static final byte ESC_HIGH = 2; /* \xNN in byte strings, literal in unicode */
+  private static final byte ESC_NEWLINE = 3; /* \n, or literal in triple quotes */
+  private static final byte ESC_CHAR = 4; /* Backslash and the char in s_escapeChar */
+  private static final byte ESC_SQUOTE = 5;
+  private static final byte ESC_DQUOTE = 6;
+
+  private static final byte[] s_escapeClass = new byte[256];
+  private static final char[] s_escapeChar = new char[256];
+  private static final char[] s_hexDigits = "0123456789abcdef".toCharArray();
+
+  static {
+    for (int ch = 0; ch < 0x20; ch++)
+      s_escapeClass[ch] = ESC_HEX;
+    s_escapeClass[0x7F] = ESC_HEX;
+    for (int ch = 0x80; ch < 0x100; ch++)
+      s_escapeClass[ch] = ESC_HIGH;
+    s_escapeClass['\n'] = ESC_NEWLINE;
+    s_escapeClass['\r'] = ESC_CHAR;
+    s_escapeChar['\r'] = 'r';
+    s_escapeClass['\t'] = ESC_CHAR;
+    s_escapeChar['\t'] = 't';
+    s_escapeClass['\\'] = ESC_CHAR;
+    s_escapeChar['\\'] = '\\';
+    s_escapeClass['\''] = ESC_SQUOTE;
+    s_escapeClass['"'] = ESC_DQUOTE;
+  }
 
-
-  public static void OutputString(PycString str, char prefix, boolean triple, PrintStream F) {
+  public static void OutputString(PycString str, char prefix, boolean triple, OutputSink F) {
     if (prefix != 0)
       F.append(prefix);
 
-    String ch_ = str.value();
-    int i = 0;
-    int len = str.length();
-    if (ch_ == null) {
-      F.printf("''");
-      return;
-    }
+    /* For byte strings this is Latin-1, one char per byte */
+    String text = str.value();
+    int len = text.length();
 
-    char ch = 0;
-    // Determine preferred quote style (Emulate Python's method)
-    boolean useQuotes = false;
-    while (len-- > 0) {
-      ch = ch_.charAt(i);
-      if (ch == '\'') {
-        useQuotes = true;
-      } else if (ch == '"') {
-        useQuotes = false;
-        break;
-      }
-      i++;
-    }
-    ch_ = str.value();
-    len = str.length();
+    // Determine preferred quote style (Emulate Python's method):
+    // double quotes only if the string has a ' but no "
+    boolean useQuotes = text.indexOf('"') < 0 && text.indexOf('\'') >= 0;
+    boolean unicode = str.m_utf8;
 
-    // Output the string
+    // Output the string, copying unescaped runs in one append
     if (triple)
-      F.printf(useQuotes ? "\"\"\"" : "'''");
+      F.append(useQuotes ? "\"\"\"" : "'''");
     else
       F.append(useQuotes ? '"' : '\'');
-    i = 0;
-    while (len-- > 0) {
-      ch = ch_.charAt(i);
-      if (ch < 0x20 || ch == 0x7F) {
-        if (ch == '\r') {
-          F.printf("\\r");
-        } else if (ch == '\n') {
-          if (triple)
-            F.append('\n');
-          else
-            F.printf("\\n");
-        } else if (ch == '\t') {
-          F.printf("\\t");
-        } else {
-          F.printf("\\x%x", (ch & 0xFF));
-        }
-      } else if (ch >= 0x80) {
-        if (str.type() == Type.TYPE_UNICODE) {
-          // Unicode stored as UTF-8... Let the stream interpret it
-          F.append(ch);
-        } else {
-          F.printf("\\x%x", (ch & 0xFF));
-        }
-      } else {
-        if (!useQuotes && ch == '\'')
-          F.printf("\\'");
-        else if (useQuotes && ch == '"')
-          F.printf("\\\"");
-        else if (ch == '\\')
-          F.printf("\\\\");
-        else
-          F.append(ch);
+    int run = 0;
+    for (int i = 0; i < len; i++) {
+      char ch = text.charAt(i);
+      int cls = (ch < 0x100) ? s_escapeClass[ch] : ESC_NONE;
+      if (cls == ESC_NONE)
+        continue;
+
+      switch (cls) {
+      case ESC_HIGH:
+        if (unicode)
+          continue; // Unicode stored as UTF-8... Let the stream encode it
+        AppendHex(F.append(text, run, i), ch);
+        break;
+      case ESC_HEX:
+        AppendHex(F.append(text, run, i), ch);
+        break;
+      case ESC_NEWLINE:
+        if (triple)
+          continue;
+        F.append(text, run, i).append("\\n");
+        break;
+      case ESC_CHAR:
+        F.append(text, run, i).append('\\').append(s_escapeChar[ch]);
+        break;
+      case ESC_SQUOTE:
+        if (useQuotes)
+          continue;
+        F.append(text, run, i).append("\\'");
+        break;
+      case ESC_DQUOTE:
+        if (!useQuotes)
+          continue;
+        F.append(text, run, i).append("\\\"");
+        break;
       }
-      i++;
+      run = i + 1;
     }
+    F.append(text, run, len);
     if (triple)
-      F.printf(useQuotes ? "\"\"\"" : "'''");
+      F.append(useQuotes ? "\"\"\"" : "'''");
     else
       F.append(useQuotes ? '"' : '\'');
   }
+
+  /* \xNN for a char below 256 */
+  private static void AppendHex(OutputSink F, char ch) {
+    F.append("\\x").append(s_hexDigits[(ch >> 4) & 0xF]).append(s_hexDigits[ch & 0xF]);
+  }
 }
 
 public class pyc_string {
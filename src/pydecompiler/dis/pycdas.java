@@ -1,17 +1,15 @@
 package pydecompiler.dis;
 
 import java.io.IOException;
-import java.io.PrintStream;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+
+import pydecompiler.util.OutputSink;
 
 // http://bear.ces.cwru.edu/eecs_382/c2java.html
 
 public class pycdas extends PycString {
-  static PrintStream pyc_output = PycData.pyc_output;
-
   static String flag_names[] = {
     "CO_OPTIMIZED", "CO_NEWLOCALS", "CO_VARARGS", "CO_VARKEYWORDS",
     "CO_NESTED", "CO_GENERATOR", "CO_NOFREE", "<0x80>", "<0x100>", "<0x200>",
@@ -24,175 +22,157 @@ public class pycdas extends PycString {
     "<0x80000000>"
   };
 
-  static void print_coflags(long flags) {
+  static void print_coflags(long flags, OutputSink out) {
     if (flags == 0) {
-      pyc_output.printf("\n");
+      out.append('\n');
       return;
     }
 
-    pyc_output.printf(" (");
+    out.append(" (");
     long f = 1;
     int k = 0;
     while (k < 32) {
       if ((flags & f) != 0) {
         flags &= ~f;
-        if (flags == 0)
-          pyc_output.printf("%s", flag_names[k]);
-        else
-          pyc_output.printf("%s | ", flag_names[k]);
+        out.append(flag_names[k]);
+        if (flags != 0)
+          out.append(" | ");
       }
       ++k;
       f <<= 1;
     }
-    pyc_output.printf(")\n");
-  }
-
-  // static void
-  static void ivprintf(int indent, String fmt, Object... args) {
-    for (int i = 0; i < indent; i++)
-      pyc_output.printf("    ");
-    pyc_output.printf(fmt, args);
-  }
-
-  static void iprintf(int indent, String fmt, double arg, double... args) {
-    ivprintf(indent, fmt, arg, args);
-  }
-
-  static void iprintf(int indent, String fmt, int arg, int... args) {
-    ivprintf(indent, fmt, arg, args);
+    out.append(")\n");
   }
 
-  static void iprintf(int indent, String fmt, String... args) {
-    ivprintf(indent, fmt, (Object[]) args);
+  static OutputSink iputs(OutputSink out, int indent) {
+    return bytecode.bc_indent(out, indent);
   }
 
-  static void output_object(PycObject obj, PycModule mod, int indent) throws IOException {
+  static void output_object(PycObject obj, PycModule mod, int indent, OutputSink out) throws IOException {
     switch (obj.type()) {
     case PycObject.Type.TYPE_CODE:
     case PycObject.Type.TYPE_CODE2: {
       PycCode codeObj = (PycCode) obj;
-      iprintf(indent, "[Code]\n");
-      iprintf(indent + 1, "File Name: %s\n", codeObj.fileName().value());
-      iprintf(indent + 1, "Object Name: %s\n", codeObj.name().value());
-      iprintf(indent + 1, "Arg Count: %d\n", codeObj.argCount());
-      iprintf(indent + 1, "Locals: %d\n", codeObj.numLocals());
-      iprintf(indent + 1, "Stack Size: %d\n", codeObj.stackSize());
-      iprintf(indent + 1, "Flags: 0x%08X", codeObj.flags());
-      print_coflags(codeObj.flags());
+      iputs(out, indent).append("[Code]\n");
+      iputs(out, indent + 1).append("File Name: ").append(codeObj.fileName().value()).append('\n');
+      iputs(out, indent + 1).append("Object Name: ").append(codeObj.name().value()).append('\n');
+      iputs(out, indent + 1).append("Arg Count: ").append(codeObj.argCount()).append('\n');
+      iputs(out, indent + 1).append("Locals: ").append(codeObj.numLocals()).append('\n');
+      iputs(out, indent + 1).append("Stack Size: ").append(codeObj.stackSize()).append('\n');
+      bytecode.bc_hex(iputs(out, indent + 1).append("Flags: 0x"), codeObj.flags(), 8);
+      print_coflags(codeObj.flags(), out);
 
       if (codeObj.names() != PycObject.Pyc_NULL) {
-        iprintf(indent + 1, "[Names]\n");
+        iputs(out, indent + 1).append("[Names]\n");
         for (int i = 0; i < codeObj.names().size(); i++)
-          output_object(codeObj.names().get(i), mod, indent + 2);
+          output_object(codeObj.names().get(i), mod, indent + 2, out);
       }
 
       if (codeObj.varNames() != PycObject.Pyc_NULL) {
-        iprintf(indent + 1, "[Var Names]\n");
+        iputs(out, indent + 1).append("[Var Names]\n");
         for (int i = 0; i < codeObj.varNames().size(); i++)
-          output_object(codeObj.varNames().get(i), mod, indent + 2);
+          output_object(codeObj.varNames().get(i), mod, indent + 2, out);
       }
 
       if (codeObj.freeVars() != PycObject.Pyc_NULL) {
-        iprintf(indent + 1, "[Free Vars]\n");
+        iputs(out, indent + 1).append("[Free Vars]\n");
         for (int i = 0; i < codeObj.freeVars().size(); i++)
-          output_object(codeObj.freeVars().get(i), mod, indent + 2);
+          output_object(codeObj.freeVars().get(i), mod, indent + 2, out);
       }
 
       if (codeObj.cellVars() != PycObject.Pyc_NULL) {
-        iprintf(indent + 1, "[Cell Vars]\n");
+        iputs(out, indent + 1).append("[Cell Vars]\n");
         for (int i = 0; i < codeObj.cellVars().size(); i++)
-          output_object(codeObj.cellVars().get(i), mod, indent + 2);
+          output_object(codeObj.cellVars().get(i), mod, indent + 2, out);
       }
 
       if (codeObj.consts() != PycObject.Pyc_NULL) {
-        iprintf(indent + 1, "[Constants]\n");
+        iputs(out, indent + 1).append("[Constants]\n");
         for (int i = 0; i < codeObj.consts().size(); i++)
-          output_object(codeObj.consts().get(i), mod, indent + 2);
+          output_object(codeObj.consts().get(i), mod, indent + 2, out);
       }
 
-      iprintf(indent + 1, "[Disassembly]\n");
-      bytecode.bc_disasm(codeObj, mod, indent + 2);
+      iputs(out, indent + 1).append("[Disassembly]\n");
+      bytecode.bc_disasm(codeObj, mod, indent + 2, out);
     }
       break;
     case PycObject.Type.TYPE_STRING:
     case PycObject.Type.TYPE_STRINGREF:
     case PycObject.Type.TYPE_INTERNED:
-      iprintf(indent, "");
-      OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0);
-      pyc_output.printf("\n");
+      OutputString((PycString) obj, (mod.majorVer() == 3) ? 'b' : 0, false, iputs(out, indent));
+      out.append('\n');
       break;
     case PycObject.Type.TYPE_UNICODE:
-      iprintf(indent, "");
-      OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u');
-      pyc_output.printf("\n");
+      OutputString((PycString) obj, (mod.majorVer() == 3) ? 0 : 'u', false, iputs(out, indent));
+      out.append('\n');
       break;
     case PycObject.Type.TYPE_TUPLE: {
-      iprintf(indent, "(\n");
+      iputs(out, indent).append("(\n");
       List<PycObject> values = ((PycTuple) obj).values();
       for (Iterator<PycObject> i = values.iterator(); i.hasNext();)
-        output_object(i.next(), mod, indent + 1);
-      iprintf(indent, ")\n");
+        output_object(i.next(), mod, indent + 1, out);
+      iputs(out, indent).append(")\n");
     }
       break;
     case PycObject.Type.TYPE_LIST: {
-      iprintf(indent, "[\n");
+      iputs(out, indent).append("[\n");
       List<PycObject> values = ((PycList) obj).values();
       for (Iterator<PycObject> i = values.iterator(); i.hasNext();)
-        output_object(i.next(), mod, indent + 1);
-      iprintf(indent, "]\n");
+        output_object(i.next(), mod, indent + 1, out);
+      iputs(out, indent).append("]\n");
     }
       break;
     case PycObject.Type.TYPE_DICT: {
-      iprintf(indent, "{\n");
+      iputs(out, indent).append("{\n");
       List<PycObject> keys = ((PycDict) obj).keys();
       List<PycObject> values = ((PycDict) obj).values();
       Iterator<PycObject> ki = keys.iterator();
       Iterator<PycObject> vi = values.iterator();
       while (ki.hasNext()) {
-        output_object(ki.next(), mod, indent + 1);
-        output_object(vi.next(), mod, indent + 2);
+        output_object(ki.next(), mod, indent + 1, out);
+        output_object(vi.next(), mod, indent + 2, out);
         // ++ki, ++vi;
       }
-      iprintf(indent, "}\n");
+      iputs(out, indent).append("}\n");
     }
       break;
     case PycObject.Type.TYPE_SET: {
-      iprintf(indent, "{\n");
-      Set<PycObject> values = ((PycSet) obj).values();
+      iputs(out, indent).append("{\n");
+      List<PycObject> values = ((PycSet) obj).values();
       for (Iterator<PycObject> i = values.iterator(); i.hasNext();)
-        output_object(i.next(), mod, indent + 1);
-      iprintf(indent, "}\n");
+        output_object(i.next(), mod, indent + 1, out);
+      iputs(out, indent).append("}\n");
     }
       break;
     case PycObject.Type.TYPE_NONE:
-      iprintf(indent, "None\n");
+      iputs(out, indent).append("None\n");
       break;
     case PycObject.Type.TYPE_FALSE:
-      iprintf(indent, "False\n");
+      iputs(out, indent).append("False\n");
       break;
     case PycObject.Type.TYPE_TRUE:
-      iprintf(indent, "True\n");
+      iputs(out, indent).append("True\n");
       break;
     case PycObject.Type.TYPE_INT:
-      iprintf(indent, "%d\n", ((PycInt) obj).value());
+      iputs(out, indent).append(((PycInt) obj).value()).append('\n');
       break;
     case PycObject.Type.TYPE_LONG:
-      iprintf(indent, "%s\n", ((PycLong) obj).repr());
+      iputs(out, indent).append(((PycLong) obj).repr()).append('\n');
       break;
     case PycObject.Type.TYPE_FLOAT:
-      iprintf(indent, "%s\n", ((PycFloat) obj).value());
+      iputs(out, indent).append(((PycFloat) obj).value()).append('\n');
       break;
     case PycObject.Type.TYPE_COMPLEX:
-      iprintf(indent, "(%s+%sj)\n", ((PycComplex) obj).value(), ((PycComplex) obj).imag());
+      iputs(out, indent).append('(').append(((PycComplex) obj).value()).append('+').append(((PycComplex) obj).imag()).append("j)\n");
       break;
     case PycObject.Type.TYPE_BINARY_FLOAT:
-      iprintf(indent, "%g\n", ((PycCFloat) obj).value());
+      iputs(out, indent).append(String.format("%g\n", ((PycCFloat) obj).value()));
       break;
     case PycObject.Type.TYPE_BINARY_COMPLEX:
-      iprintf(indent, "(%g+%gj)\n", ((PycCComplex) obj).value(), ((PycCComplex) obj).imag());
+      iputs(out, indent).append(String.format("(%g+%gj)\n", ((PycCComplex) obj).value(), ((PycCComplex) obj).imag()));
       break;
     default:
-      iprintf(indent, "<TYPE: %d>\n", Integer.toString(obj.type()));
+      iputs(out, indent).append("<TYPE: ").append(obj.type()).append(">\n");
     }
   }
 
@@ -201,26 +181,18 @@ public class pycdas extends PycString {
   public static String getDir() {
     // URL url = pycdas.class.getResource(".");
     URL url = pycdas.class.getClassLoader().getResource("");
-    return url.getPath();
+    return (url == null) ? null : url.getPath();
   }
 
-  public static void main(String[] args) throws IOException {
-
-    if (args.length < 1) {
-      System.err.printf("No input file specified\n");
-      return;
-    }
+  static void disassemble(PycModule mod, String dispname, OutputSink out) throws IOException {
+    out.append(dispname).append(" (Python ").append(mod.majorVer()).append('.').append(mod.minorVer())
+        .append((mod.majorVer() < 3 && mod.isUnicode()) ? " -U" : "").append(")\n");
+    output_object(((PycObject) mod.code()), mod, 0, out);
+  }
 
-    PycModule mod = new PycModule();
-    mod.loadFromFile(getDir() + args[0]);
-    int lastIndexOf = args[0].lastIndexOf(PATHSEP);
-    String dispname = args[0];
-    if (lastIndexOf >= 0)
-      dispname = args[0].substring(args[1].lastIndexOf(PATHSEP));
-    dispname = (dispname == null) ? args[1] : dispname;
-    pyc_output.printf("%s (Python %d.%d%s)\n", dispname, mod.majorVer(), mod.minorVer(), (mod.majorVer() < 3 && mod.isUnicode()) ? " -U" : "");
-    output_object(((PycObject) mod.code()), mod, 0);
-
-    return;
+  public static void main(String[] args) throws IOException {
+    int failed = new PycBatch(".das", pycdas::disassemble).run(args);
+    if (failed > 0)
+      System.exit(1);
   }
 }
@@ -1,174 +1,97 @@
 package pydecompiler.dis;
 
+import java.util.Arrays;
+
 import pydecompiler.dis.Pyc.Opcode;
 
 
 public class python_10 {
 
-  Opcode python_10_map(Opcode id)
-{
-    switch (id.ordinal()) {
-    case 0:
-      return Opcode.STOP_CODE;
+  /* Indexed by the raw opcode byte; unused slots hold PYC_INVALID_OPCODE */
+  static final Opcode[] python_10_map = new Opcode[256];
 
-    case 1:
-      return Opcode.POP_TOP;
-    case 2:
-      return Opcode.ROT_TWO;
-    case 3:
-      return Opcode.ROT_THREE;
-    case 4:
-      return Opcode.DUP_TOP;
-    case 10:
-      return Opcode.UNARY_POSITIVE;
-    case 11:
-      return Opcode.UNARY_NEGATIVE;
-    case 12:
-      return Opcode.UNARY_NOT;
-    case 13:
-      return Opcode.UNARY_CONVERT;
-    case 14:
-      return Opcode.UNARY_CALL;
-    case 15:
-      return Opcode.UNARY_INVERT;
-    case 20:
-      return Opcode.BINARY_MULTIPLY;
-    case 21:
-      return Opcode.BINARY_DIVIDE;
-    case 22:
-      return Opcode.BINARY_MODULO;
-    case 23:
-      return Opcode.BINARY_ADD;
-    case 24:
-      return Opcode.BINARY_SUBTRACT;
-    case 25:
-      return Opcode.BINARY_SUBSCR;
-    case 26:
-      return Opcode.BINARY_CALL;
-    case 30:
-      return Opcode.SLICE_0;
-    case 31:
-      return Opcode.SLICE_1;
-    case 32:
-      return Opcode.SLICE_2;
-    case 33:
-      return Opcode.SLICE_3;
-    case 40:
-      return Opcode.STORE_SLICE_0;
-    case 41:
-      return Opcode.STORE_SLICE_1;
-    case 42:
-      return Opcode.STORE_SLICE_2;
-    case 43:
-      return Opcode.STORE_SLICE_3;
-    case 50:
-      return Opcode.DELETE_SLICE_0;
-    case 51:
-      return Opcode.DELETE_SLICE_1;
-    case 52:
-      return Opcode.DELETE_SLICE_2;
-    case 53:
-      return Opcode.DELETE_SLICE_3;
-    case 60:
-      return Opcode.STORE_SUBSCR;
-    case 61:
-      return Opcode.DELETE_SUBSCR;
-    case 70:
-      return Opcode.PRINT_EXPR;
-    case 71:
-      return Opcode.PRINT_ITEM;
-    case 72:
-      return Opcode.PRINT_NEWLINE;
-    case 80:
-      return Opcode.BREAK_LOOP;
-    case 81:
-      return Opcode.RAISE_EXCEPTION;
-    case 82:
-      return Opcode.LOAD_LOCALS;
-    case 83:
-      return Opcode.RETURN_VALUE;
-    case 86:
-      return Opcode.BUILD_FUNCTION;
-    case 87:
-      return Opcode.POP_BLOCK;
-    case 88:
-      return Opcode.END_FINALLY;
-    case 89:
-      return Opcode.BUILD_CLASS;
-    case 90:
-      return Opcode.STORE_NAME_A;
-    case 91:
-      return Opcode.DELETE_NAME_A;
-    case 92:
-      return Opcode.UNPACK_TUPLE_A;
-    case 93:
-      return Opcode.UNPACK_LIST_A;
-    case 94:
-      return Opcode.UNPACK_ARG_A;
-    case 95:
-      return Opcode.STORE_ATTR_A;
-    case 96:
-      return Opcode.DELETE_ATTR_A;
-    case 97:
-      return Opcode.STORE_GLOBAL_A;
-    case 98:
-      return Opcode.DELETE_GLOBAL_A;
-    case 99:
-      return Opcode.UNPACK_VARARG_A;
-    case 100:
-      return Opcode.LOAD_CONST_A;
-    case 101:
-      return Opcode.LOAD_NAME_A;
-    case 102:
-      return Opcode.BUILD_TUPLE_A;
-    case 103:
-      return Opcode.BUILD_LIST_A;
-    case 104:
-      return Opcode.BUILD_MAP_A;
-    case 105:
-      return Opcode.LOAD_ATTR_A;
-    case 106:
-      return Opcode.COMPARE_OP_A;
-    case 107:
-      return Opcode.IMPORT_NAME_A;
-    case 108:
-      return Opcode.IMPORT_FROM_A;
-    case 110:
-      return Opcode.JUMP_FORWARD_A;
-    case 111:
-      return Opcode.JUMP_IF_FALSE_A;
-    case 112:
-      return Opcode.JUMP_IF_TRUE_A;
-    case 113:
-      return Opcode.JUMP_ABSOLUTE_A;
-    case 114:
-      return Opcode.FOR_LOOP_A;
-    case 115:
-      return Opcode.LOAD_LOCAL_A;
-    case 116:
-      return Opcode.LOAD_GLOBAL_A;
-    case 120:
-      return Opcode.SETUP_LOOP_A;
-    case 121:
-      return Opcode.SETUP_EXCEPT_A;
-    case 122:
-      return Opcode.SETUP_FINALLY_A;
-    case 123:
-      return Opcode.RESERVE_FAST_A;
-    case 124:
-      return Opcode.LOAD_FAST_A;
-    case 125:
-      return Opcode.STORE_FAST_A;
-    case 126:
-      return Opcode.DELETE_FAST_A;
-    case 127:
-      return Opcode.SET_LINENO_A;
-    default:
-      return Opcode.PYC_INVALID_OPCODE;
-    }
-}
+  static {
+    Arrays.fill(python_10_map, Opcode.PYC_INVALID_OPCODE);
+    python_10_map[0] = Opcode.STOP_CODE;
+    python_10_map[1] = Opcode.POP_TOP;
+    python_10_map[2] = Opcode.ROT_TWO;
+    python_10_map[3] = Opcode.ROT_THREE;
+    python_10_map[4] = Opcode.DUP_TOP;
+    python_10_map[10] = Opcode.UNARY_POSITIVE;
+    python_10_map[11] = Opcode.UNARY_NEGATIVE;
+    python_10_map[12] = Opcode.UNARY_NOT;
+    python_10_map[13] = Opcode.UNARY_CONVERT;
+    python_10_map[14] = Opcode.UNARY_CALL;
+    python_10_map[15] = Opcode.UNARY_INVERT;
+    python_10_map[20] = Opcode.BINARY_MULTIPLY;
+    python_10_map[21] = Opcode.BINARY_DIVIDE;
+    python_10_map[22] = Opcode.BINARY_MODULO;
+    python_10_map[23] = Opcode.BINARY_ADD;
+    python_10_map[24] = Opcode.BINARY_SUBTRACT;
+    python_10_map[25] = Opcode.BINARY_SUBSCR;
+    python_10_map[26] = Opcode.BINARY_CALL;
+    python_10_map[30] = Opcode.SLICE_0;
+    python_10_map[31] = Opcode.SLICE_1;
+    python_10_map[32] = Opcode.SLICE_2;
+    python_10_map[33] = Opcode.SLICE_3;
+    python_10_map[40] = Opcode.STORE_SLICE_0;
+    python_10_map[41] = Opcode.STORE_SLICE_1;
+    python_10_map[42] = Opcode.STORE_SLICE_2;
+    python_10_map[43] = Opcode.STORE_SLICE_3;
+    python_10_map[50] = Opcode.DELETE_SLICE_0;
+    python_10_map[51] = Opcode.DELETE_SLICE_1;
+    python_10_map[52] = Opcode.DELETE_SLICE_2;
+    python_10_map[53] = Opcode.DELETE_SLICE_3;
+    python_10_map[60] = Opcode.STORE_SUBSCR;
+    python_10_map[61] = Opcode.DELETE_SUBSCR;
+    python_10_map[70] = Opcode.PRINT_EXPR;
+    python_10_map[71] = Opcode.PRINT_ITEM;
+    python_10_map[72] = Opcode.PRINT_NEWLINE;
+    python_10_map[80] = Opcode.BREAK_LOOP;
+    python_10_map[81] = Opcode.RAISE_EXCEPTION;
+    python_10_map[82] = Opcode.LOAD_LOCALS;
+    python_10_map[83] = Opcode.RETURN_VALUE;
+    python_10_map[86] = Opcode.BUILD_FUNCTION;
+    python_10_map[87] = Opcode.POP_BLOCK;
+    python_10_map[88] = Opcode.END_FINALLY;
+    python_10_map[89] = Opcode.BUILD_CLASS;
+    python_10_map[90] = Opcode.STORE_NAME_A;
+    python_10_map[91] = Opcode.DELETE_NAME_A;
+    python_10_map[92] = Opcode.UNPACK_TUPLE_A;
+    python_10_map[93] = Opcode.UNPACK_LIST_A;
+    python_10_map[94] = Opcode.UNPACK_ARG_A;
+    python_10_map[95] = Opcode.STORE_ATTR_A;
+    python_10_map[96] = Opcode.DELETE_ATTR_A;
+    python_10_map[97] = Opcode.STORE_GLOBAL_A;
+    python_10_map[98] = Opcode.DELETE_GLOBAL_A;
+    python_10_map[99] = Opcode.UNPACK_VARARG_A;
+    python_10_map[100] = Opcode.LOAD_CONST_A;
+    python_10_map[101] = Opcode.LOAD_NAME_A;
+    python_10_map[102] = Opcode.BUILD_TUPLE_A;
+    python_10_map[103] = Opcode.BUILD_LIST_A;
+    python_10_map[104] = Opcode.BUILD_MAP_A;
+    python_10_map[105] = Opcode.LOAD_ATTR_A;
+    python_10_map[106] = Opcode.COMPARE_OP_A;
+    python_10_map[107] = Opcode.IMPORT_NAME_A;
+    python_10_map[108] = Opcode.IMPORT_FROM_A;
+    python_10_map[110] = Opcode.JUMP_FORWARD_A;
+    python_10_map[111] = Opcode.JUMP_IF_FALSE_A;
+    python_10_map[112] = Opcode.JUMP_IF_TRUE_A;
+    python_10_map[113] = Opcode.JUMP_ABSOLUTE_A;
+    python_10_map[114] = Opcode.FOR_LOOP_A;
+    python_10_map[115] = Opcode.LOAD_LOCAL_A;
+    python_10_map[116] = Opcode.LOAD_GLOBAL_A;
+    python_10_map[120] = Opcode.SETUP_LOOP_A;
+    python_10_map[121] = Opcode.SETUP_EXCEPT_A;
+    python_10_map[122] = Opcode.SETUP_FINALLY_A;
+    python_10_map[123] = Opcode.RESERVE_FAST_A;
+    python_10_map[124] = Opcode.LOAD_FAST_A;
+    python_10_map[125] = Opcode.STORE_FAST_A;
+    python_10_map[126] = Opcode.DELETE_FAST_A;
+    python_10_map[127] = Opcode.SET_LINENO_A;
+  }
 
-  int python_10_unmap(Opcode id)
+  static int python_10_unmap(Opcode id)
 {
     switch (id) {
     case BINARY_ADD:
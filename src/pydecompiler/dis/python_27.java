@@ -1,253 +1,136 @@
 package pydecompiler.dis;
 
+import java.util.Arrays;
+
 import pydecompiler.dis.Pyc.Opcode;
 
 
 public class python_27 {
 
-  static Opcode python_27_map(int id)
-  {
-      switch (id) {
-      case 0: return Opcode.STOP_CODE;
-    case 1:
-      return Opcode.POP_TOP;
-    case 2:
-      return Opcode.ROT_TWO;
-    case 3:
-      return Opcode.ROT_THREE;
-    case 4:
-      return Opcode.DUP_TOP;
-    case 5:
-      return Opcode.ROT_FOUR;
-    case 9:
-      return Opcode.NOP;
-    case 10:
-      return Opcode.UNARY_POSITIVE;
-    case 11:
-      return Opcode.UNARY_NEGATIVE;
-    case 12:
-      return Opcode.UNARY_NOT;
-    case 13:
-      return Opcode.UNARY_CONVERT;
-    case 15:
-      return Opcode.UNARY_INVERT;
-    case 19:
-      return Opcode.BINARY_POWER;
-    case 20:
-      return Opcode.BINARY_MULTIPLY;
-    case 21:
-      return Opcode.BINARY_DIVIDE;
-    case 22:
-      return Opcode.BINARY_MODULO;
-    case 23:
-      return Opcode.BINARY_ADD;
-    case 24:
-      return Opcode.BINARY_SUBTRACT;
-    case 25:
-      return Opcode.BINARY_SUBSCR;
-    case 26:
-      return Opcode.BINARY_FLOOR_DIVIDE;
-    case 27:
-      return Opcode.BINARY_TRUE_DIVIDE;
-    case 28:
-      return Opcode.INPLACE_FLOOR_DIVIDE;
-    case 29:
-      return Opcode.INPLACE_TRUE_DIVIDE;
-    case 30:
-      return Opcode.SLICE_0;
-    case 31:
-      return Opcode.SLICE_1;
-    case 32:
-      return Opcode.SLICE_2;
-    case 33:
-      return Opcode.SLICE_3;
-    case 40:
-      return Opcode.STORE_SLICE_0;
-    case 41:
-      return Opcode.STORE_SLICE_1;
-    case 42:
-      return Opcode.STORE_SLICE_2;
-    case 43:
-      return Opcode.STORE_SLICE_3;
-    case 50:
-      return Opcode.DELETE_SLICE_0;
-    case 51:
-      return Opcode.DELETE_SLICE_1;
-    case 52:
-      return Opcode.DELETE_SLICE_2;
-    case 53:
-      return Opcode.DELETE_SLICE_3;
-    case 54:
-      return Opcode.STORE_MAP;
-    case 55:
-      return Opcode.INPLACE_ADD;
-    case 56:
-      return Opcode.INPLACE_SUBTRACT;
-    case 57:
-      return Opcode.INPLACE_MULTIPLY;
-    case 58:
-      return Opcode.INPLACE_DIVIDE;
-    case 59:
-      return Opcode.INPLACE_MODULO;
-    case 60:
-      return Opcode.STORE_SUBSCR;
-    case 61:
-      return Opcode.DELETE_SUBSCR;
-    case 62:
-      return Opcode.BINARY_LSHIFT;
-    case 63:
-      return Opcode.BINARY_RSHIFT;
-    case 64:
-      return Opcode.BINARY_AND;
-    case 65:
-      return Opcode.BINARY_XOR;
-    case 66:
-      return Opcode.BINARY_OR;
-    case 67:
-      return Opcode.INPLACE_POWER;
-    case 68:
-      return Opcode.GET_ITER;
-    case 70:
-      return Opcode.PRINT_EXPR;
-    case 71:
-      return Opcode.PRINT_ITEM;
-    case 72:
-      return Opcode.PRINT_NEWLINE;
-    case 73:
-      return Opcode.PRINT_ITEM_TO;
-    case 74:
-      return Opcode.PRINT_NEWLINE_TO;
-    case 75:
-      return Opcode.INPLACE_LSHIFT;
-    case 76:
-      return Opcode.INPLACE_RSHIFT;
-    case 77:
-      return Opcode.INPLACE_AND;
-    case 78:
-      return Opcode.INPLACE_XOR;
-    case 79:
-      return Opcode.INPLACE_OR;
-    case 80:
-      return Opcode.BREAK_LOOP;
-    case 81:
-      return Opcode.WITH_CLEANUP;
-    case 82:
-      return Opcode.LOAD_LOCALS;
-    case 83:
-      return Opcode.RETURN_VALUE;
-    case 84:
-      return Opcode.IMPORT_STAR;
-    case 85:
-      return Opcode.EXEC_STMT;
-    case 86:
-      return Opcode.YIELD_VALUE;
-    case 87:
-      return Opcode.POP_BLOCK;
-    case 88:
-      return Opcode.END_FINALLY;
-    case 89:
-      return Opcode.BUILD_CLASS;
-    case 90:
-      return Opcode.STORE_NAME_A;
-    case 91:
-      return Opcode.DELETE_NAME_A;
-    case 92:
-      return Opcode.UNPACK_SEQUENCE_A;
-    case 93:
-      return Opcode.FOR_ITER_A;
-    case 94:
-      return Opcode.LIST_APPEND_A;
-    case 95:
-      return Opcode.STORE_ATTR_A;
-    case 96:
-      return Opcode.DELETE_ATTR_A;
-    case 97:
-      return Opcode.STORE_GLOBAL_A;
-    case 98:
-      return Opcode.DELETE_GLOBAL_A;
-    case 99:
-      return Opcode.DUP_TOPX_A;
-    case 100:
-      return Opcode.LOAD_CONST_A;
-    case 101:
-      return Opcode.LOAD_NAME_A;
-    case 102:
-      return Opcode.BUILD_TUPLE_A;
-    case 103:
-      return Opcode.BUILD_LIST_A;
-    case 104:
-      return Opcode.BUILD_SET_A;
-    case 105:
-      return Opcode.BUILD_MAP_A;
-    case 106:
-      return Opcode.LOAD_ATTR_A;
-    case 107:
-      return Opcode.COMPARE_OP_A;
-    case 108:
-      return Opcode.IMPORT_NAME_A;
-    case 109:
-      return Opcode.IMPORT_FROM_A;
-    case 110:
-      return Opcode.JUMP_FORWARD_A;
-    case 111:
-      return Opcode.JUMP_IF_FALSE_OR_POP_A;
-    case 112:
-      return Opcode.JUMP_IF_TRUE_OR_POP_A;
-    case 113:
-      return Opcode.JUMP_ABSOLUTE_A;
-    case 114:
-      return Opcode.POP_JUMP_IF_FALSE_A;
-    case 115:
-      return Opcode.POP_JUMP_IF_TRUE_A;
-    case 116:
-      return Opcode.LOAD_GLOBAL_A;
-    case 119:
-      return Opcode.CONTINUE_LOOP_A;
-    case 120:
-      return Opcode.SETUP_LOOP_A;
-    case 121:
-      return Opcode.SETUP_EXCEPT_A;
-    case 122:
-      return Opcode.SETUP_FINALLY_A;
-    case 124:
-      return Opcode.LOAD_FAST_A;
-    case 125:
-      return Opcode.STORE_FAST_A;
-    case 126:
-      return Opcode.DELETE_FAST_A;
-    case 130:
-      return Opcode.RAISE_VARARGS_A;
-    case 131:
-      return Opcode.CALL_FUNCTION_A;
-    case 132:
-      return Opcode.MAKE_FUNCTION_A;
-    case 133:
-      return Opcode.BUILD_SLICE_A;
-    case 134:
-      return Opcode.MAKE_CLOSURE_A;
-    case 135:
-      return Opcode.LOAD_CLOSURE_A;
-    case 136:
-      return Opcode.LOAD_DEREF_A;
-    case 137:
-      return Opcode.STORE_DEREF_A;
-    case 140:
-      return Opcode.CALL_FUNCTION_VAR_A;
-    case 141:
-      return Opcode.CALL_FUNCTION_KW_A;
-    case 142:
-      return Opcode.CALL_FUNCTION_VAR_KW_A;
-    case 143:
-      return Opcode.SETUP_WITH_A;
-    case 145:
-      return Opcode.EXTENDED_ARG_A;
-    case 146:
-      return Opcode.SET_ADD_A;
-    case 147:
-      return Opcode.MAP_ADD_A;
-    default:
-      return Opcode.PYC_INVALID_OPCODE;
-      }
+  /* Indexed by the raw opcode byte; unused slots hold PYC_INVALID_OPCODE */
+  static final Opcode[] python_27_map = new Opcode[256];
+
+  static {
+    Arrays.fill(python_27_map, Opcode.PYC_INVALID_OPCODE);
+    python_27_map[0] = Opcode.STOP_CODE;
+    python_27_map[1] = Opcode.POP_TOP;
+    python_27_map[2] = Opcode.ROT_TWO;
+    python_27_map[3] = Opcode.ROT_THREE;
+    python_27_map[4] = Opcode.DUP_TOP;
+    python_27_map[5] = Opcode.ROT_FOUR;
+    python_27_map[9] = Opcode.NOP;
+    python_27_map[10] = Opcode.UNARY_POSITIVE;
+    python_27_map[11] = Opcode.UNARY_NEGATIVE;
+    python_27_map[12] = Opcode.UNARY_NOT;
+    python_27_map[13] = Opcode.UNARY_CONVERT;
+    python_27_map[15] = Opcode.UNARY_INVERT;
+    python_27_map[19] = Opcode.BINARY_POWER;
+    python_27_map[20] = Opcode.BINARY_MULTIPLY;
+    python_27_map[21] = Opcode.BINARY_DIVIDE;
+    python_27_map[22] = Opcode.BINARY_MODULO;
+    python_27_map[23] = Opcode.BINARY_ADD;
+    python_27_map[24] = Opcode.BINARY_SUBTRACT;
+    python_27_map[25] = Opcode.BINARY_SUBSCR;
+    python_27_map[26] = Opcode.BINARY_FLOOR_DIVIDE;
+    python_27_map[27] = Opcode.BINARY_TRUE_DIVIDE;
+    python_27_map[28] = Opcode.INPLACE_FLOOR_DIVIDE;
+    python_27_map[29] = Opcode.INPLACE_TRUE_DIVIDE;
+    python_27_map[30] = Opcode.SLICE_0;
+    python_27_map[31] = Opcode.SLICE_1;
+    python_27_map[32] = Opcode.SLICE_2;
+    python_27_map[33] = Opcode.SLICE_3;
+    python_27_map[40] = Opcode.STORE_SLICE_0;
+    python_27_map[41] = Opcode.STORE_SLICE_1;
+    python_27_map[42] = Opcode.STORE_SLICE_2;
+    python_27_map[43] = Opcode.STORE_SLICE_3;
+    python_27_map[50] = Opcode.DELETE_SLICE_0;
+    python_27_map[51] = Opcode.DELETE_SLICE_1;
+    python_27_map[52] = Opcode.DELETE_SLICE_2;
+    python_27_map[53] = Opcode.DELETE_SLICE_3;
+    python_27_map[54] = Opcode.STORE_MAP;
+    python_27_map[55] = Opcode.INPLACE_ADD;
+    python_27_map[56] = Opcode.INPLACE_SUBTRACT;
+    python_27_map[57] = Opcode.INPLACE_MULTIPLY;
+    python_27_map[58] = Opcode.INPLACE_DIVIDE;
+    python_27_map[59] = Opcode.INPLACE_MODULO;
+    python_27_map[60] = Opcode.STORE_SUBSCR;
+    python_27_map[61] = Opcode.DELETE_SUBSCR;
+    python_27_map[62] = Opcode.BINARY_LSHIFT;
+    python_27_map[63] = Opcode.BINARY_RSHIFT;
+    python_27_map[64] = Opcode.BINARY_AND;
+    python_27_map[65] = Opcode.BINARY_XOR;
+    python_27_map[66] = Opcode.BINARY_OR;
+    python_27_map[67] = Opcode.INPLACE_POWER;
+    python_27_map[68] = Opcode.GET_ITER;
+    python_27_map[70] = Opcode.PRINT_EXPR;
+    python_27_map[71] = Opcode.PRINT_ITEM;
+    python_27_map[72] = Opcode.PRINT_NEWLINE;
+    python_27_map[73] = Opcode.PRINT_ITEM_TO;
+    python_27_map[74] = Opcode.PRINT_NEWLINE_TO;
+    python_27_map[75] = Opcode.INPLACE_LSHIFT;
+    python_27_map[76] = Opcode.INPLACE_RSHIFT;
+    python_27_map[77] = Opcode.INPLACE_AND;
+    python_27_map[78] = Opcode.INPLACE_XOR;
+    python_27_map[79] = Opcode.INPLACE_OR;
+    python_27_map[80] = Opcode.BREAK_LOOP;
+    python_27_map[81] = Opcode.WITH_CLEANUP;
+    python_27_map[82] = Opcode.LOAD_LOCALS;
+    python_27_map[83] = Opcode.RETURN_VALUE;
+    python_27_map[84] = Opcode.IMPORT_STAR;
+    python_27_map[85] = Opcode.EXEC_STMT;
+    python_27_map[86] = Opcode.YIELD_VALUE;
+    python_27_map[87] = Opcode.POP_BLOCK;
+    python_27_map[88] = Opcode.END_FINALLY;
+    python_27_map[89] = Opcode.BUILD_CLASS;
+    python_27_map[90] = Opcode.STORE_NAME_A;
+    python_27_map[91] = Opcode.DELETE_NAME_A;
+    python_27_map[92] = Opcode.UNPACK_SEQUENCE_A;
+    python_27_map[93] = Opcode.FOR_ITER_A;
+    python_27_map[94] = Opcode.LIST_APPEND_A;
+    python_27_map[95] = Opcode.STORE_ATTR_A;
+    python_27_map[96] = Opcode.DELETE_ATTR_A;
+    python_27_map[97] = Opcode.STORE_GLOBAL_A;
+    python_27_map[98] = Opcode.DELETE_GLOBAL_A;
+    python_27_map[99] = Opcode.DUP_TOPX_A;
+    python_27_map[100] = Opcode.LOAD_CONST_A;
+    python_27_map[101] = Opcode.LOAD_NAME_A;
+    python_27_map[102] = Opcode.BUILD_TUPLE_A;
+    python_27_map[103] = Opcode.BUILD_LIST_A;
+    python_27_map[104] = Opcode.BUILD_SET_A;
+    python_27_map[105] = Opcode.BUILD_MAP_A;
+    python_27_map[106] = Opcode.LOAD_ATTR_A;
+    python_27_map[107] = Opcode.COMPARE_OP_A;
+    python_27_map[108] = Opcode.IMPORT_NAME_A;
+    python_27_map[109] = Opcode.IMPORT_FROM_A;
+    python_27_map[110] = Opcode.JUMP_FORWARD_A;
+    python_27_map[111] = Opcode.JUMP_IF_FALSE_OR_POP_A;
+    python_27_map[112] = Opcode.JUMP_IF_TRUE_OR_POP_A;
+    python_27_map[113] = Opcode.JUMP_ABSOLUTE_A;
+    python_27_map[114] = Opcode.POP_JUMP_IF_FALSE_A;
+    python_27_map[115] = Opcode.POP_JUMP_IF_TRUE_A;
+    python_27_map[116] = Opcode.LOAD_GLOBAL_A;
+    python_27_map[119] = Opcode.CONTINUE_LOOP_A;
+    python_27_map[120] = Opcode.SETUP_LOOP_A;
+    python_27_map[121] = Opcode.SETUP_EXCEPT_A;
+    python_27_map[122] = Opcode.SETUP_FINALLY_A;
+    python_27_map[124] = Opcode.LOAD_FAST_A;
+    python_27_map[125] = Opcode.STORE_FAST_A;
+    python_27_map[126] = Opcode.DELETE_FAST_A;
+    python_27_map[130] = Opcode.RAISE_VARARGS_A;
+    python_27_map[131] = Opcode.CALL_FUNCTION_A;
+    python_27_map[132] = Opcode.MAKE_FUNCTION_A;
+    python_27_map[133] = Opcode.BUILD_SLICE_A;
+    python_27_map[134] = Opcode.MAKE_CLOSURE_A;
+    python_27_map[135] = Opcode.LOAD_CLOSURE_A;
+    python_27_map[136] = Opcode.LOAD_DEREF_A;
+    python_27_map[137] = Opcode.STORE_DEREF_A;
+    python_27_map[140] = Opcode.CALL_FUNCTION_VAR_A;
+    python_27_map[141] = Opcode.CALL_FUNCTION_KW_A;
+    python_27_map[142] = Opcode.CALL_FUNCTION_VAR_KW_A;
+    python_27_map[143] = Opcode.SETUP_WITH_A;
+    python_27_map[145] = Opcode.EXTENDED_ARG_A;
+    python_27_map[146] = Opcode.SET_ADD_A;
+    python_27_map[147] = Opcode.MAP_ADD_A;
   }
 
   static int python_27_unmap(Opcode id)
@@ -1,48 +1,105 @@
 package pydecompiler.util;
 
-import java.util.ArrayDeque;
+import java.util.Arrays;
 
 import pydecompiler.dis.ASTNode;
 
-public class FastStack extends ArrayDeque {
+/* The decompiler's evaluation stack, sized from co_stacksize.  Popping or
+ * reading an empty stack yields ASTNode.Node_NULL, and pushing null stores
+ * Node_NULL, so callers never see a null node.
+ *
+ * snapshot() and restore() are O(1): both stacks share the backing array
+ * until one of them pushes, which first takes a private copy.  Pops never
+ * write to the array, so they are free on a shared stack. */
+public class FastStack {
+  private static final int MIN_CAPACITY = 4;
+
+  private ASTNode[] m_items;
+  private int m_size;
+  private boolean m_shared;
+
   public FastStack() {
+    this(16);
   }
 
   public FastStack(int size) {
-    super(size);
+    m_items = new ASTNode[Math.max(size, MIN_CAPACITY)];
+  }
+
+  private FastStack(ASTNode[] items, int size) {
+    m_items = items;
+    m_size = size;
+    m_shared = true;
   }
 
   public void push(ASTNode node) {
-    if (node == null)
-      node = new ASTNode();
-    super.push(node);
-    count++;
+    if (m_shared || m_size == m_items.length)
+      unshare();
+    m_items[m_size++] = (node != null) ? node : ASTNode.Node_NULL;
   }
 
-  public int size() {
-    return count;
+  public ASTNode pop() {
+    if (m_size == 0)
+      return ASTNode.Node_NULL;
+    ASTNode node = m_items[--m_size];
+    if (!m_shared)
+      m_items[m_size] = null;
+    return node;
   }
 
-  public Object pop() {
-    count--;
-    if (super.isEmpty())
-      return new ASTNode();
-    return super.pop();
+  public ASTNode top() {
+    return (m_size == 0) ? ASTNode.Node_NULL : m_items[m_size - 1];
+  }
+
+  public ASTNode peek() {
+    return top();
+  }
+
+  public int size() {
+    return m_size;
   }
 
   public boolean empty() {
-    return this.isEmpty();
+    return m_size == 0;
   }
 
-  public ASTNode top() {
-    if (super.isEmpty())
-      return new ASTNode();
-    return (ASTNode) super.peek();
+  public boolean isEmpty() {
+    return m_size == 0;
   }
 
-  public ASTNode peek() {
-    return (ASTNode) super.peek();
+  /* Empties the stack for reuse, keeping its array when it is big enough
+   * for capacity.  Only for owners that know every snapshot taken from it
+   * is already garbage, since those may share the array. */
+  public void reset(int capacity) {
+    if (m_items.length < capacity) {
+      m_items = new ASTNode[capacity];
+    } else {
+      Arrays.fill(m_items, null);
+    }
+    m_size = 0;
+    m_shared = false;
   }
 
-  private int count;
+  /* An independent stack with the same contents */
+  public FastStack snapshot() {
+    m_shared = true;
+    return new FastStack(m_items, m_size);
+  }
+
+  /* Makes this stack's contents those of saved, which stays unchanged */
+  public void restore(FastStack saved) {
+    saved.m_shared = true;
+    m_items = saved.m_items;
+    m_size = saved.m_size;
+    m_shared = true;
+  }
+
+  /* Takes a private copy of the live entries, growing if full */
+  private void unshare() {
+    int capacity = (m_size == m_items.length) ? m_items.length * 2 : m_items.length;
+    ASTNode[] items = new ASTNode[capacity];
+    System.arraycopy(m_items, 0, items, 0, m_size);
+    m_items = items;
+    m_shared = false;
+  }
 }
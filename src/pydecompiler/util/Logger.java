@@ -1,15 +1,138 @@
 package pydecompiler.util;
 
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/* Leveled diagnostics on stderr.  Every entry point checks the level (or
+ * trace channel) before touching its arguments, so disabled logging costs a
+ * volatile read; use the Supplier overloads when building the message is
+ * itself expensive.  The caller's location is only looked up by logWhere().
+ *
+ * The initial settings can be given on the command line with
+ *   -Dpydecompiler.log=off|error|warn|info|debug|trace
+ *   -Dpydecompiler.trace=stack,block,lock
+ */
 public class Logger {
-  public static void log(Object... err) {
+  public static final int OFF = 0;
+  public static final int ERROR = 1;
+  public static final int WARN = 2;
+  public static final int INFO = 3;
+  public static final int DEBUG = 4;
+  public static final int TRACE = 5;
+
+  /* Trace channels for the decompiler loop, independent of the level */
+  public static final int STACK = 0x1;
+  public static final int BLOCK = 0x2;
+  public static final int LOCK = 0x4;
+
+  private static final String[] s_level_names = { "off", "error", "warn", "info", "debug", "trace" };
+
+  private static volatile int s_level = parseLevel(System.getProperty("pydecompiler.log"));
+  private static volatile int s_channels = parseChannels(System.getProperty("pydecompiler.trace"));
+
+  private static int parseLevel(String name) {
+    if (name != null) {
+      for (int i = 0; i < s_level_names.length; i++) {
+        if (s_level_names[i].equalsIgnoreCase(name.trim()))
+          return i;
+      }
+    }
+    return WARN;
+  }
+
+  private static int parseChannels(String names) {
+    int channels = 0;
+    if (names == null)
+      return channels;
+    for (String name : names.toLowerCase(Locale.ROOT).split(",")) {
+      switch (name.trim()) {
+      case "stack":
+        channels |= STACK;
+        break;
+      case "block":
+        channels |= BLOCK;
+        break;
+      case "lock":
+        channels |= LOCK;
+        break;
+      }
+    }
+    return channels;
+  }
+
+  public static void setLevel(int level) {
+    s_level = level;
+  }
+
+  public static int level() {
+    return s_level;
+  }
+
+  public static boolean isEnabled(int level) {
+    return level <= s_level;
+  }
+
+  public static void enableTrace(int channels) {
+    s_channels |= channels;
+  }
+
+  public static void disableTrace(int channels) {
+    s_channels &= ~channels;
+  }
+
+  /* True if any of the given trace channels is on */
+  public static boolean isTracing(int channels) {
+    return (s_channels & channels) != 0;
+  }
+
+  public static void log(int level, Object... args) {
+    if (level <= s_level)
+      emit(args, null);
+  }
+
+  public static void log(int level, Supplier<?> message) {
+    if (level <= s_level)
+      emit(new Object[] { message.get() }, null);
+  }
+
+  /* As log(), with the caller's class, method and line appended */
+  public static void logWhere(int level, Object... args) {
+    if (level <= s_level)
+      emit(args, caller());
+  }
+
+  public static void trace(int channels, Supplier<?> message) {
+    if ((s_channels & channels) != 0)
+      emit(new Object[] { message.get() }, null);
+  }
+
+  public static void error(Object... args) {
+    log(ERROR, args);
+  }
+
+  public static void warn(Object... args) {
+    log(WARN, args);
+  }
+
+  public static void debug(Supplier<?> message) {
+    log(DEBUG, message);
+  }
+
+  private static String caller() {
+    return StackWalker.getInstance()
+        .walk(frames -> frames.skip(2).findFirst())
+        .map(frame -> frame.getClassName() + "." + frame.getMethodName() + " (" + frame.getFileName() + ":"
+            + frame.getLineNumber() + ")")
+        .orElse("<unknown>");
+  }
+
+  private static void emit(Object[] args, String where) {
     StringBuilder strb = new StringBuilder();
-    strb.append(new Exception().getStackTrace()[1].toString().replace("(", " ("));
-    String info = strb.toString();
-    strb.delete(0, strb.length());
-    for (Object str : err)
-      strb.append(str);
-    strb.append("    ").append(info);
-    strb.append("\n");
-    System.err.printf(strb.toString());
+    for (Object arg : args)
+      strb.append(arg);
+    if (where != null)
+      strb.append("    ").append(where);
+    strb.append('\n');
+    System.err.print(strb);
   }
 }
@@ -0,0 +1,34 @@
+package pydecompiler.util;
+
+/* Discards everything; for timing the decompiler without the cost of output */
+public final class NullSink implements OutputSink {
+  public static final NullSink INSTANCE = new NullSink();
+
+  private NullSink() {
+  }
+
+  @Override
+  public NullSink append(char c) {
+    return this;
+  }
+
+  @Override
+  public NullSink append(CharSequence s) {
+    return this;
+  }
+
+  @Override
+  public NullSink append(CharSequence s, int start, int end) {
+    return this;
+  }
+
+  @Override
+  public NullSink append(int value) {
+    return this;
+  }
+
+  @Override
+  public NullSink printf(String format, Object... args) {
+    return this;
+  }
+}
@@ -0,0 +1,37 @@
+package pydecompiler.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/* Destination for disassembler and decompiler text.  Appends never throw;
+ * a sink backed by I/O remembers the first failure and reports it from
+ * flush() or close(), so the printing code does not need to handle
+ * IOException on every token. */
+public interface OutputSink extends Appendable, Flushable, Closeable {
+  @Override
+  OutputSink append(char c);
+
+  @Override
+  OutputSink append(CharSequence s);
+
+  @Override
+  OutputSink append(CharSequence s, int start, int end);
+
+  default OutputSink append(int value) {
+    return append(Integer.toString(value));
+  }
+
+  default OutputSink printf(String format, Object... args) {
+    return append(String.format(format, args));
+  }
+
+  @Override
+  default void flush() throws IOException {
+  }
+
+  @Override
+  default void close() throws IOException {
+    flush();
+  }
+}
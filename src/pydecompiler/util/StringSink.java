@@ -0,0 +1,55 @@
+package pydecompiler.util;
+
+/* Collects output in memory */
+public class StringSink implements OutputSink {
+  private final StringBuilder m_text;
+
+  public StringSink() {
+    m_text = new StringBuilder();
+  }
+
+  public StringSink(int capacity) {
+    m_text = new StringBuilder(capacity);
+  }
+
+  @Override
+  public StringSink append(char c) {
+    m_text.append(c);
+    return this;
+  }
+
+  @Override
+  public StringSink append(CharSequence s) {
+    m_text.append(s);
+    return this;
+  }
+
+  @Override
+  public StringSink append(CharSequence s, int start, int end) {
+    m_text.append(s, start, end);
+    return this;
+  }
+
+  @Override
+  public StringSink append(int value) {
+    m_text.append(value);
+    return this;
+  }
+
+  public int length() {
+    return m_text.length();
+  }
+
+  public void clear() {
+    m_text.setLength(0);
+  }
+
+  public StringBuilder buffer() {
+    return m_text;
+  }
+
+  @Override
+  public String toString() {
+    return m_text.toString();
+  }
+}
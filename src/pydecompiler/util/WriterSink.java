@@ -0,0 +1,138 @@
+package pydecompiler.util;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/* Buffers characters and hands them to a Writer in large blocks.  Not
+ * thread-safe: each thread or output file gets its own sink. */
+public class WriterSink implements OutputSink {
+  public static final int DEFAULT_BUFFER = 64 * 1024;
+
+  private final Writer m_writer;
+  private final boolean m_ownsWriter;
+  private final char[] m_buf;
+  private int m_len;
+  private IOException m_error;
+
+  public WriterSink(Writer writer, int bufferSize, boolean ownsWriter) {
+    m_writer = writer;
+    m_ownsWriter = ownsWriter;
+    m_buf = new char[Math.max(bufferSize, 64)];
+  }
+
+  public WriterSink(Writer writer) {
+    this(writer, DEFAULT_BUFFER, true);
+  }
+
+  /* UTF-8 file, created or truncated */
+  public static WriterSink open(Path file) throws IOException {
+    return new WriterSink(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  /* UTF-8 standard output; close() flushes but leaves stdout open */
+  public static WriterSink stdout() {
+    return new WriterSink(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8),
+        DEFAULT_BUFFER, false);
+  }
+
+  private void drain() {
+    if (m_len == 0)
+      return;
+    if (m_error == null) {
+      try {
+        m_writer.write(m_buf, 0, m_len);
+      } catch (IOException ex) {
+        m_error = ex;
+      }
+    }
+    m_len = 0;
+  }
+
+  @Override
+  public WriterSink append(char c) {
+    if (m_len == m_buf.length)
+      drain();
+    m_buf[m_len++] = c;
+    return this;
+  }
+
+  @Override
+  public WriterSink append(CharSequence s) {
+    if (s == null)
+      s = "null";
+    return append(s, 0, s.length());
+  }
+
+  @Override
+  public WriterSink append(CharSequence s, int start, int end) {
+    if (s == null)
+      s = "null";
+    while (start < end) {
+      if (m_len == m_buf.length)
+        drain();
+      int n = Math.min(end - start, m_buf.length - m_len);
+      if (s instanceof String) {
+        ((String) s).getChars(start, start + n, m_buf, m_len);
+      } else if (s instanceof StringBuilder) {
+        ((StringBuilder) s).getChars(start, start + n, m_buf, m_len);
+      } else {
+        for (int i = 0; i < n; i++)
+          m_buf[m_len + i] = s.charAt(start + i);
+      }
+      m_len += n;
+      start += n;
+    }
+    return this;
+  }
+
+  @Override
+  public WriterSink append(int value) {
+    if (m_buf.length - m_len < 11)
+      drain();
+    long v = value;
+    if (v < 0) {
+      m_buf[m_len++] = '-';
+      v = -v;
+    }
+    int digits = 1;
+    for (long t = v; t >= 10; t /= 10)
+      digits++;
+    int end = m_len + digits;
+    for (int i = end - 1; i >= m_len; i--) {
+      m_buf[i] = (char) ('0' + v % 10);
+      v /= 10;
+    }
+    m_len = end;
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    drain();
+    if (m_error == null) {
+      try {
+        m_writer.flush();
+      } catch (IOException ex) {
+        m_error = ex;
+      }
+    }
+    if (m_error != null)
+      throw m_error;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      if (m_ownsWriter)
+        m_writer.close();
+    }
+  }
+}